@@ -0,0 +1,107 @@
+package com.example.masstracker;
+
+import android.database.Cursor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares mapping a large result row by row the way the original
+ * DashboardActivity.loadMassData did with CursorRows. The original looked
+ * up column indices on every row, boxed each mass and built a display
+ * string per row. Scores are per row, so with RunBenchmarks' GC profiler
+ * gc.alloc.rate.norm is the bytes allocated per row, which is 0 for
+ * CursorRows.
+ *
+ * Rows come from ArrayCursor rather than SQLite, so only the mapping is
+ * measured. This needs a real android.database.AbstractCursor on the
+ * classpath, such as Robolectric's android-all jar.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CursorMappingBenchmark {
+
+    private static final int ROWS = 100_000;
+
+    private ArrayCursor cursor;
+    private int[] days;
+    private double[] masses;
+    private final SumVisitor visitor = new SumVisitor();
+
+    @Setup(Level.Trial)
+    public void createRows() {
+        int[] rowDays = new int[ROWS];
+        long[] rowGrams = new long[ROWS];
+        Histories.Walk walk = new Histories.Walk(Histories.SEED);
+        for (int i = 0; i < ROWS; i++) {
+            rowDays[i] = i;
+            rowGrams[i] = MassGrams.of(walk.next());
+        }
+        cursor = new ArrayCursor(rowDays, rowGrams);
+        days = new int[ROWS];
+        masses = new double[ROWS];
+    }
+
+    /**
+     * The original loop: a column lookup, a boxed mass and a string per row.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<String> perRowLookups() {
+        Cursor rows = cursor.rewind();
+        List<String> list = new ArrayList<>();
+        while (rows.moveToNext()) {
+            String date = rows.getString(rows.getColumnIndex(DatabaseHelper.COLUMN_DAY));
+            Double mass = rows.getDouble(rows.getColumnIndex(DatabaseHelper.COLUMN_MASS_GRAMS));
+            list.add(date + " - " + mass);
+        }
+        return list;
+    }
+
+    /**
+     * Rows passed to a callback, as SqliteMassStore.scan reads them.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long forEachDayMass() {
+        visitor.sum = 0;
+        CursorRows.forEachDayMass(cursor.rewind(), visitor);
+        return visitor.sum;
+    }
+
+    /**
+     * Rows read into arrays, as MassRepository reads a page.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int readDayMass() {
+        return CursorRows.readDayMass(cursor.rewind(), days, masses);
+    }
+
+    private static class SumVisitor implements MassStore.Visitor {
+        long sum;
+
+        @Override
+        public void visit(int epochDay, long grams) {
+            sum += epochDay + grams;
+        }
+    }
+}
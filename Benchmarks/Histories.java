@@ -0,0 +1,191 @@
+package com.example.masstracker;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * Histories builds the synthetic mass histories the benchmarks run on: one
+ * log per day from 1970-01-01, following a seeded random walk so every run
+ * sees the same data. Past about 3.6 million days the dates run beyond year
+ * 9999, which only affects how search results are formatted.
+ */
+final class Histories {
+
+    static final int USER_ID = 1;
+    static final long SEED = 42;
+
+    private static final double START_MASS = 80.0;
+    private static final double STEP = 0.3;
+    private static final double REVERSION = 0.002;
+
+    private Histories() {
+    }
+
+    /**
+     * @param size The number of logs.
+     * @return A series of size daily logs.
+     */
+    static MassSeries series(int size) {
+        MassSeries series = new MassSeries(size);
+        Walk walk = new Walk(SEED);
+        for (int day = 0; day < size; day++) {
+            series.put(day, walk.next());
+        }
+        return series;
+    }
+
+    /**
+     * Opens an on-disk database with the app's mass schema and settings,
+     * through the xerial sqlite-jdbc driver.
+     *
+     * @param file The database file.
+     * @return The connection, in auto-commit mode.
+     * @throws SQLException If the database could not be opened.
+     */
+    static Connection open(File file) throws SQLException {
+        return open(file, "WAL");
+    }
+
+    /**
+     * Opens an on-disk database in the given journal mode. WAL is set up as
+     * DatabaseHelper configures its connections; a rollback journal mode as
+     * Android opens a database by default, syncing every commit in full.
+     *
+     * @param file        The database file.
+     * @param journalMode "WAL", or a rollback journal mode such as "DELETE".
+     * @return The connection, in auto-commit mode.
+     * @throws SQLException If the database could not be opened.
+     */
+    static Connection open(File file, String journalMode) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("PRAGMA journal_mode=" + journalMode);
+            statement.execute("PRAGMA synchronous=" + ("WAL".equals(journalMode) ? "NORMAL" : "FULL"));
+            statement.execute("PRAGMA busy_timeout=5000");
+        } finally {
+            statement.close();
+        }
+        return connection;
+    }
+
+    /**
+     * Returns a database holding rows daily logs for USER_ID, creating it on
+     * first use. Databases are kept between runs because filling the largest
+     * takes a while.
+     *
+     * @param rows The number of logs.
+     * @return The database file.
+     * @throws SQLException If the database could not be created.
+     */
+    static File database(int rows) throws SQLException {
+        File file = new File(System.getProperty("java.io.tmpdir"), "mass-bench-v6-" + rows + ".db");
+        if (file.exists()) {
+            return file;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        temp.delete();
+        Connection connection = open(temp);
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute(DatabaseHelper.TABLE_CREATE_USERS);
+                statement.execute(DatabaseHelper.TABLE_CREATE_MASS);
+                statement.execute(DatabaseHelper.CREATE_INDEX_USER_MASS);
+                statement.execute("INSERT INTO " + DatabaseHelper.TABLE_USERS + " VALUES (" + USER_ID + ", 'bench', 'x', 0)");
+            } finally {
+                statement.close();
+            }
+
+            connection.setAutoCommit(false);
+            PreparedStatement insert = connection.prepareStatement(MassImporter.INSERT_SQL);
+            Walk walk = new Walk(SEED);
+            try {
+                for (int day = 0; day < rows; day++) {
+                    insert.setInt(1, USER_ID);
+                    insert.setInt(2, day);
+                    insert.setLong(3, MassGrams.of(walk.next()));
+                    insert.addBatch();
+                    if ((day + 1) % MassImporter.DEFAULT_CHUNK_SIZE == 0) {
+                        insert.executeBatch();
+                        connection.commit();
+                    }
+                }
+                insert.executeBatch();
+                connection.commit();
+            } finally {
+                insert.close();
+            }
+            connection.setAutoCommit(true);
+
+            statement = connection.createStatement();
+            try {
+                statement.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new SQLException("Could not create " + file.getPath());
+        }
+        new File(temp.getPath() + "-wal").delete();
+        new File(temp.getPath() + "-shm").delete();
+        return file;
+    }
+
+    /**
+     * @return The size of a file, or of every file in a directory.
+     */
+    static long sizeOf(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Walk is a seeded random walk of masses that drifts back towards the
+     * starting mass, rounded to 0.1 like a bathroom scale so equal masses are
+     * common.
+     */
+    static final class Walk {
+        private final Random random;
+        private double mass = START_MASS;
+
+        Walk(long seed) {
+            random = new Random(seed);
+        }
+
+        double next() {
+            mass += random.nextGaussian() * STEP + (START_MASS - mass) * REVERSION;
+            return Math.round(mass * 10) / 10.0;
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     */
+    static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
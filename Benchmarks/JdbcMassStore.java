@@ -0,0 +1,144 @@
+package com.example.masstracker;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * JdbcMassStore runs SqliteMassStore's SQL through sqlite-jdbc, so the
+ * SQLite engine can be compared with MappedLogMassStore on a plain JVM.
+ * Like SqliteMassStore it commits every write on its own. It creates the
+ * mass table and index but not the rollup and change log triggers, which
+ * are built by Android-only code.
+ */
+class JdbcMassStore implements MassStore {
+
+    private static final String DELETE_SQL = "DELETE FROM " + DatabaseHelper.TABLE_MASS + " WHERE " + SqliteMassStore.KEY_WHERE;
+
+    private final Connection connection;
+    private PreparedStatement insert;
+    private PreparedStatement range;
+    private PreparedStatement get;
+    private PreparedStatement delete;
+
+    /**
+     * Opens a store, creating the schema if the file is new.
+     *
+     * @param file The database file.
+     * @throws IOException If the database could not be opened.
+     */
+    JdbcMassStore(File file) throws IOException {
+        try {
+            connection = Histories.open(file);
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute(DatabaseHelper.TABLE_CREATE_MASS.replace("CREATE TABLE", "CREATE TABLE IF NOT EXISTS"));
+                statement.execute(DatabaseHelper.CREATE_INDEX_USER_MASS);
+            } finally {
+                statement.close();
+            }
+            prepare();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void prepare() throws SQLException {
+        insert = connection.prepareStatement(MassImporter.INSERT_SQL);
+        range = connection.prepareStatement(SqliteMassStore.RANGE_SQL);
+        get = connection.prepareStatement(SqliteMassStore.GET_SQL);
+        delete = connection.prepareStatement(DELETE_SQL);
+    }
+
+    @Override
+    public void append(int userId, int epochDay, long grams) throws IOException {
+        try {
+            insert.setInt(1, userId);
+            insert.setInt(2, epochDay);
+            insert.setLong(3, grams);
+            insert.executeUpdate();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void scan(int userId, int fromDay, int toDay, Visitor visitor) throws IOException {
+        try {
+            range.setInt(1, userId);
+            range.setInt(2, fromDay);
+            range.setInt(3, toDay);
+            ResultSet rows = range.executeQuery();
+            try {
+                while (rows.next()) {
+                    visitor.visit(rows.getInt(1), rows.getLong(2));
+                }
+            } finally {
+                rows.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public long get(int userId, int epochDay) throws IOException {
+        try {
+            get.setInt(1, userId);
+            get.setInt(2, epochDay);
+            ResultSet rows = get.executeQuery();
+            try {
+                return rows.next() ? rows.getLong(1) : NOT_FOUND;
+            } finally {
+                rows.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public boolean delete(int userId, int epochDay) throws IOException {
+        try {
+            delete.setInt(1, userId);
+            delete.setInt(2, epochDay);
+            return delete.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void compact() throws IOException {
+        try {
+            // sqlite-jdbc keeps prepared statements open, and VACUUM refuses to run while any are
+            insert.close();
+            range.close();
+            get.close();
+            delete.close();
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute("VACUUM");
+                statement.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+            } finally {
+                statement.close();
+                prepare();
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            connection.close(); // Closes its statements too
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+}
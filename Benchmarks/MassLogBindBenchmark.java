@@ -0,0 +1,80 @@
+package com.example.masstracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the text work of binding one grid cell while scrolling through a
+ * 100k-entry history: each operation formats the next log, as
+ * MassLogAdapter.getView does for a cell coming on screen. With
+ * RunBenchmarks' GC profiler, gc.alloc.rate.norm is the bytes allocated per
+ * bind, which is 0 for the cell's reused buffer. The string variant is the
+ * "date - mass" string the original adapter displayed, for comparison.
+ *
+ * The TextView itself is not measured; setText(char[], int, int) keeps the
+ * buffer rather than copying it.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MassLogBindBenchmark {
+
+    private static final int LOGS = 100_000;
+
+    private MassSeries history;
+    private final char[] buffer = new char[MassLogQueries.LOG_TEXT_CAPACITY];
+    private int position;
+
+    @Setup(Level.Trial)
+    public void createHistory() {
+        history = Histories.series(LOGS);
+        // Both variants must show the same text, or the comparison means nothing
+        for (int i = 0; i < LOGS; i++) {
+            int length = MassLogQueries.formatLog(buffer, history.dayAt(i), history.massAt(i));
+            String expected = MassLogQueries.formatLog(history.dayAt(i), history.massAt(i));
+            if (!expected.contentEquals(CharBuffer.wrap(buffer, 0, length))) {
+                throw new IllegalStateException("Log " + i + " formats as " + new String(buffer, 0, length) +
+                        ", expected " + expected);
+            }
+        }
+    }
+
+    /**
+     * Binds the next cell into the cell's reused buffer.
+     */
+    @Benchmark
+    public int bindIntoBuffer() {
+        int i = next();
+        return MassLogQueries.formatLog(buffer, history.dayAt(i), history.massAt(i));
+    }
+
+    /**
+     * Binds the next cell by building its string.
+     */
+    @Benchmark
+    public String bindAsString() {
+        int i = next();
+        return MassLogQueries.formatLog(history.dayAt(i), history.massAt(i));
+    }
+
+    private int next() {
+        int i = position;
+        position = i + 1 == LOGS ? 0 : i + 1;
+        return i;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.masstracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks MassLogQueries, the dashboard's in-memory operations, on
+ * histories of 1e3 to 1e7 logs.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class MassLogQueriesBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    private final SplittableRandom random = new SplittableRandom(Histories.SEED);
+
+    /**
+     * History is a loaded series, as MassSeriesCache holds it.
+     */
+    @State(Scope.Benchmark)
+    public static class History {
+        @Param({"1000", "10000", "100000", "1000000", "10000000"})
+        public int size;
+
+        MassSeries logs;
+        String[] dates;
+
+        @Setup(Level.Trial)
+        public void load() {
+            logs = Histories.series(size);
+            // Search text is parsed on every search, so draw it from a fixed pool
+            SplittableRandom random = new SplittableRandom(Histories.SEED);
+            dates = new String[1024];
+            for (int i = 0; i < dates.length; i++) {
+                dates[i] = EpochDays.format(random.nextInt(Math.min(size, 3_000_000)));
+            }
+        }
+    }
+
+    /**
+     * Sorted is the history in one of the four display orders.
+     */
+    @State(Scope.Benchmark)
+    public static class Sorted {
+        // 0-3, as DashboardActivity's sort dialog passes it
+        @Param({"0", "1", "2", "3"})
+        public int sortOption;
+
+        MassSeries.View view;
+        int pages;
+
+        @Setup(Level.Trial)
+        public void sort(History history) {
+            view = MassLogQueries.sortLogs(history.logs, sortOption); // Builds the mass index for mass orders
+            pages = (view.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+        }
+    }
+
+    /**
+     * Unindexed is a fresh copy of the history without the mass index, as
+     * it is right after loading. Each invocation gets its own copy.
+     */
+    @State(Scope.Thread)
+    public static class Unindexed {
+        MassSeries logs;
+
+        @Setup(Level.Invocation)
+        public void copy(History history) {
+            logs = new MassSeries(history.size);
+            for (int i = 0; i < history.logs.size(); i++) {
+                logs.put(history.logs.dayAt(i), history.logs.massAt(i));
+            }
+        }
+    }
+
+    @Benchmark
+    public MassSeries.View getPaginatedLogs(Sorted sorted) {
+        return MassLogQueries.getPaginatedLogs(sorted.view, random.nextInt(sorted.pages), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public boolean hasNextPage(Sorted sorted) {
+        return MassLogQueries.hasNextPage(sorted.view, random.nextInt(sorted.pages), PAGE_SIZE);
+    }
+
+    /**
+     * Sorting a series whose mass index is built, which is what every sort after the first costs.
+     */
+    @Benchmark
+    public MassSeries.View sortLogs(History history, Sorted sorted) {
+        return MassLogQueries.sortLogs(history.logs, sorted.sortOption);
+    }
+
+    /**
+     * Sorting a freshly loaded series, which builds the mass index for mass orders.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10)
+    public MassSeries.View sortLogsFirstTime(Unindexed unindexed, Sorted sorted) {
+        return MassLogQueries.sortLogs(unindexed.logs, sorted.sortOption);
+    }
+
+    @Benchmark
+    public String searchByMass(History history) {
+        return MassLogQueries.searchByMass(history.logs, 60 + random.nextDouble() * 40);
+    }
+
+    @Benchmark
+    public String searchByDate(History history) {
+        return MassLogQueries.searchByDate(history.logs, history.dates[random.nextInt(history.dates.length)]);
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.masstracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks MassRepository's read and insert SQL against an on-disk SQLite
+ * file through sqlite-jdbc, with histories of 1e3 to 1e7 logs. The mixed
+ * group runs three readers, each on its own connection as SQLiteDatabase's
+ * pool hands them out in WAL mode, against one writer. The journal parameter
+ * compares that with the rollback journal DatabaseHelper used before, where
+ * readers and the writer take turns on the file lock.
+ *
+ * The file size of each history is printed when its trial starts. The
+ * databases omit the rollup and change log triggers, so inserts here cost
+ * less than on a device.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MassRepositoryBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+    private static final int RANGE_DAYS = 30;
+
+    // MassRepository.PAGE_SQL indexes: (byMass ? 4 : 0) | (ascending ? 2 : 0) | (seek ? 1 : 0)
+    private static final int FIRST_PAGE_BY_DATE = 0; // Newest first
+    private static final int NEXT_PAGE_BY_DATE = 1;
+    private static final int FIRST_PAGE_BY_MASS = 6; // Lightest first
+
+    /**
+     * Database is an on-disk history shared by every thread.
+     */
+    @State(Scope.Benchmark)
+    public static class Database {
+        @Param({"1000", "100000", "1000000", "10000000"})
+        public int rows;
+
+        @Param({"WAL", "DELETE"})
+        public String journal;
+
+        File file;
+
+        @Setup(Level.Trial)
+        public void open() throws SQLException {
+            file = Histories.database(rows);
+            // The journal mode is stored in the file, so switch it while no other connection is open
+            Histories.open(file, journal).close();
+            System.out.printf("%n%d logs: %d bytes on disk, %.1f bytes per log%n",
+                    rows, file.length(), (double) file.length() / rows);
+        }
+    }
+
+    /**
+     * Reader is one thread's read-only connection and compiled queries.
+     */
+    @State(Scope.Thread)
+    public static class Reader {
+        Connection connection;
+        PreparedStatement all;
+        PreparedStatement range;
+        PreparedStatement get;
+        PreparedStatement firstByDate;
+        PreparedStatement nextByDate;
+        PreparedStatement firstByMass;
+        int rows;
+        final SplittableRandom random = new SplittableRandom();
+
+        @Setup(Level.Trial)
+        public void open(Database database) throws SQLException {
+            rows = database.rows;
+            connection = Histories.open(database.file, database.journal);
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute("PRAGMA query_only=1");
+            } finally {
+                statement.close();
+            }
+            all = connection.prepareStatement(SqliteMassStore.RANGE_SQL);
+            range = connection.prepareStatement(SqliteMassStore.RANGE_SQL);
+            get = connection.prepareStatement(SqliteMassStore.GET_SQL);
+            firstByDate = connection.prepareStatement(MassRepository.PAGE_SQL[FIRST_PAGE_BY_DATE]);
+            nextByDate = connection.prepareStatement(MassRepository.PAGE_SQL[NEXT_PAGE_BY_DATE]);
+            firstByMass = connection.prepareStatement(MassRepository.PAGE_SQL[FIRST_PAGE_BY_MASS]);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            connection.close();
+        }
+    }
+
+    /**
+     * Writer is the single write connection.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        Connection connection;
+        PreparedStatement insert;
+        int rows;
+        final SplittableRandom random = new SplittableRandom();
+
+        @Setup(Level.Trial)
+        public void open(Database database) throws SQLException {
+            rows = database.rows;
+            connection = Histories.open(database.file, database.journal);
+            insert = connection.prepareStatement(MassImporter.INSERT_SQL);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            connection.close();
+        }
+    }
+
+    /**
+     * Loads the whole history into a MassSeries, as getAllMassLogs does on a cache miss.
+     */
+    @Benchmark
+    public MassSeries getAllMassLogs(Reader reader) throws SQLException {
+        MassSeries logs = new MassSeries();
+        reader.all.setInt(1, Histories.USER_ID);
+        reader.all.setInt(2, Integer.MIN_VALUE);
+        reader.all.setInt(3, Integer.MAX_VALUE);
+        ResultSet rows = reader.all.executeQuery();
+        try {
+            while (rows.next()) {
+                logs.put(rows.getInt(1), MassGrams.toMass(rows.getLong(2)));
+            }
+        } finally {
+            rows.close();
+        }
+        return logs;
+    }
+
+    @Benchmark
+    public long getLog(Reader reader) throws SQLException {
+        reader.get.setInt(1, Histories.USER_ID);
+        reader.get.setInt(2, reader.random.nextInt(reader.rows));
+        ResultSet rows = reader.get.executeQuery();
+        try {
+            return rows.next() ? rows.getLong(1) : MassStore.NOT_FOUND;
+        } finally {
+            rows.close();
+        }
+    }
+
+    @Benchmark
+    public long rangeScan(Reader reader) throws SQLException {
+        int from = reader.random.nextInt(Math.max(1, reader.rows - RANGE_DAYS));
+        reader.range.setInt(1, Histories.USER_ID);
+        reader.range.setInt(2, from);
+        reader.range.setInt(3, from + RANGE_DAYS - 1);
+        return sum(reader.range.executeQuery());
+    }
+
+    @Benchmark
+    public long firstPageByDate(Reader reader) throws SQLException {
+        reader.firstByDate.setInt(1, Histories.USER_ID);
+        reader.firstByDate.setInt(2, PAGE_SIZE + 1);
+        return sum(reader.firstByDate.executeQuery());
+    }
+
+    @Benchmark
+    public long nextPageByDate(Reader reader) throws SQLException {
+        reader.nextByDate.setInt(1, Histories.USER_ID);
+        reader.nextByDate.setInt(2, reader.random.nextInt(reader.rows));
+        reader.nextByDate.setInt(3, PAGE_SIZE + 1);
+        return sum(reader.nextByDate.executeQuery());
+    }
+
+    @Benchmark
+    public long firstPageByMass(Reader reader) throws SQLException {
+        reader.firstByMass.setInt(1, Histories.USER_ID);
+        reader.firstByMass.setInt(2, PAGE_SIZE + 1);
+        return sum(reader.firstByMass.executeQuery());
+    }
+
+    /**
+     * Replaces a random day's log, so the history keeps its size.
+     */
+    @Benchmark
+    public int addMassLog(Writer writer) throws SQLException {
+        return insert(writer);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public long mixedRead(Reader reader) throws SQLException {
+        return rangeScan(reader);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int mixedWrite(Writer writer) throws SQLException {
+        return insert(writer);
+    }
+
+    private static int insert(Writer writer) throws SQLException {
+        writer.insert.setInt(1, Histories.USER_ID);
+        writer.insert.setInt(2, writer.random.nextInt(writer.rows));
+        writer.insert.setLong(3, MassGrams.of(60 + writer.random.nextInt(400) / 10.0));
+        return writer.insert.executeUpdate();
+    }
+
+    /**
+     * Reads every row of a result so the query runs to the end.
+     */
+    private static long sum(ResultSet rows) throws SQLException {
+        long sum = 0;
+        try {
+            while (rows.next()) {
+                sum += rows.getInt(1) + rows.getLong(2);
+            }
+        } finally {
+            rows.close();
+        }
+        return sum;
+    }
+}
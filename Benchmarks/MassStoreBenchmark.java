@@ -0,0 +1,148 @@
+package com.example.masstracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the MassStore engines: SQLite, through JdbcMassStore, and
+ * MappedLogMassStore. Histories are spread over USERS users, as on a shared
+ * device. Each trial prints the engine's size on disk after loading and
+ * after compaction.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class MassStoreBenchmark {
+
+    private static final int USERS = 10;
+    private static final int RANGE_DAYS = 30;
+    private static final int INGEST_LOGS = 100_000;
+
+    @Param({"sqlite", "mapped"})
+    public String engine;
+
+    @Param({"100000", "1000000"})
+    public int logs;
+
+    private File directory;
+    private MassStore store;
+    private int daysPerUser;
+    private final SplittableRandom random = new SplittableRandom(Histories.SEED);
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        directory = Files.createTempDirectory("mass-store-bench").toFile();
+        store = open(engine, directory);
+        daysPerUser = logs / USERS;
+        ingest(store, daysPerUser);
+        System.out.printf("%n%s, %d logs: %d bytes loaded", engine, logs, Histories.sizeOf(directory));
+        store.compact();
+        System.out.printf(", %d bytes compacted%n", Histories.sizeOf(directory));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        store.close();
+        Histories.delete(directory);
+    }
+
+    @Benchmark
+    public void append() throws IOException {
+        store.append(random.nextInt(USERS), random.nextInt(daysPerUser), 60_000 + random.nextInt(40_000));
+    }
+
+    @Benchmark
+    public long get() throws IOException {
+        return store.get(random.nextInt(USERS), random.nextInt(daysPerUser));
+    }
+
+    @Benchmark
+    public long scanRange() throws IOException {
+        int from = random.nextInt(Math.max(1, daysPerUser - RANGE_DAYS));
+        long[] sum = new long[1];
+        store.scan(random.nextInt(USERS), from, from + RANGE_DAYS - 1, (day, grams) -> sum[0] += grams);
+        return sum[0];
+    }
+
+    @Benchmark
+    public long scanUser() throws IOException {
+        long[] sum = new long[1];
+        store.scan(random.nextInt(USERS), Integer.MIN_VALUE, Integer.MAX_VALUE, (day, grams) -> sum[0] += grams);
+        return sum[0];
+    }
+
+    /**
+     * Empty is a fresh, empty store for each ingest.
+     */
+    @State(Scope.Thread)
+    public static class Empty {
+        File directory;
+        MassStore store;
+
+        @Setup(Level.Invocation)
+        public void open(MassStoreBenchmark benchmark) throws IOException {
+            directory = Files.createTempDirectory("mass-store-ingest").toFile();
+            store = MassStoreBenchmark.open(benchmark.engine, directory);
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() throws IOException {
+            store.close();
+            Histories.delete(directory);
+        }
+    }
+
+    /**
+     * Appends INGEST_LOGS logs one at a time into an empty store.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10)
+    public void ingest(Empty empty) throws IOException {
+        ingest(empty.store, INGEST_LOGS / USERS);
+    }
+
+    private static MassStore open(String engine, File directory) throws IOException {
+        if ("mapped".equals(engine)) {
+            return new MappedLogMassStore(directory, MappedLogMassStore.DEFAULT_SEGMENT_RECORDS,
+                    MappedLogMassStore.DEFAULT_COMPACT_RECORDS);
+        }
+        return new JdbcMassStore(new File(directory, "mass.db"));
+    }
+
+    /**
+     * Appends daysPerUser days for every user, day by day as they are logged.
+     */
+    private static void ingest(MassStore store, int daysPerUser) throws IOException {
+        Histories.Walk[] walks = new Histories.Walk[USERS];
+        for (int user = 0; user < USERS; user++) {
+            walks[user] = new Histories.Walk(Histories.SEED + user);
+        }
+        for (int day = 0; day < daysPerUser; day++) {
+            for (int user = 0; user < USERS; user++) {
+                store.append(user, day, MassGrams.of(walks[user].next()));
+            }
+        }
+    }
+}
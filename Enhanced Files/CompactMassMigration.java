@@ -0,0 +1,306 @@
+package com.example.masstracker;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Version 6 stores mass logs compactly: integer epoch days and masses in
+ * thousandths of the unit, clustered on (user_id_fk, day) in a WITHOUT ROWID
+ * table, instead of text dates, real masses, a hidden rowid and three
+ * indexes. It also rebuilds the rollups and change log triggers that versions
+ * 3 to 5 added on top of the old layout, so it upgrades any of them directly.
+ *
+ * The step runs in three phases, told apart by the schema:
+ * the old table is renamed aside and the new one created; rows are converted
+ * in rowid batches, with the checkpoint holding the last rowid copied; then
+ * the rollups are rebuilt one user per batch, with the checkpoint holding the
+ * last user done. A user now has one log per day, so where a day has several
+ * the latest one is kept and the others are moved to the mass_quarantine
+ * table.
+ *
+ * Older versions stored whatever was typed into the date field, and showed
+ * it as typed. Dates in another layout, such as "2024-3-1", "01/03/2024" or
+ * one with a time, are converted when they name one real day; the rest are
+ * moved unchanged to the quarantine table, as are the logs of users that no
+ * longer exist, which versions 2 to 5 did not prevent. So no log is lost.
+ */
+class CompactMassMigration extends Migration {
+
+    private static final String OLD_MASS = DatabaseHelper.TABLE_MASS + "_v5";
+
+    // Triggers versions 4 and 5 created on the old table
+    private static final String[] OLD_TRIGGERS = {
+            "mass_rollup_insert", "mass_rollup_delete", "mass_rollup_update_old", "mass_rollup_update_new",
+            "mass_log_insert", "mass_log_delete", "mass_log_update",
+    };
+
+    // Julian day number of 1970-01-01, for turning dates into epoch days
+    private static final String JULIAN_EPOCH = "2440587.5";
+
+    // A converted log in the old layout, for quarantining a log that a later one replaces
+    private static final String CONVERTED_DATE = "date(" + DatabaseHelper.COLUMN_DAY + " + " + JULIAN_EPOCH + ")";
+    private static final String CONVERTED_MASS = DatabaseHelper.COLUMN_MASS_GRAMS + " / " + MassGrams.PER_UNIT + ".0";
+
+    CompactMassMigration() {
+        super(6);
+    }
+
+    @Override
+    public long migrate(SQLiteDatabase db, long checkpoint, int batchSize) {
+        if (tableExists(db, OLD_MASS)) {
+            return copy(db, checkpoint, batchSize);
+        }
+        if (columnExists(db, DatabaseHelper.TABLE_MASS, RebuildTablesMigration.COLUMN_DATE)) {
+            start(db);
+            return 0; // No rows copied yet
+        }
+        return backfill(db, checkpoint);
+    }
+
+    /**
+     * Moves the old table aside and creates the new one. The old triggers and
+     * rollups are dropped rather than kept up to date while rows are copied.
+     */
+    private static void start(SQLiteDatabase db) {
+        for (String trigger : OLD_TRIGGERS) {
+            db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+        }
+        db.execSQL("DROP TABLE IF EXISTS " + DatabaseHelper.TABLE_ROLLUP);
+        db.execSQL("ALTER TABLE " + DatabaseHelper.TABLE_MASS + " RENAME TO " + OLD_MASS);
+        db.execSQL(DatabaseHelper.TABLE_CREATE_MASS);
+        db.execSQL(DatabaseHelper.CREATE_INDEX_USER_MASS);
+        db.execSQL(DatabaseHelper.TABLE_CREATE_MASS_QUARANTINE);
+
+        if (tableExists(db, DatabaseHelper.TABLE_CHANGE_LOG)) {
+            if (!columnExists(db, DatabaseHelper.TABLE_CHANGE_LOG, DatabaseHelper.COLUMN_ROW_DAY)) {
+                db.execSQL("ALTER TABLE " + DatabaseHelper.TABLE_CHANGE_LOG + " ADD COLUMN " +
+                        DatabaseHelper.COLUMN_ROW_DAY + " INTEGER");
+            }
+            // Logged rowids mean nothing in the new table; the next backup starts a new chain anyway
+            db.delete(DatabaseHelper.TABLE_CHANGE_LOG, DatabaseHelper.COLUMN_TABLE + " = ?",
+                    new String[]{DatabaseHelper.TABLE_MASS});
+        }
+    }
+
+    /**
+     * Converts one batch of old rows. Rows already in "yyyy-MM-dd" form are
+     * converted in SQL; the others, which are rare, are handled by recover.
+     * Rows of users that no longer exist, and rows a later log of the same
+     * day replaces, are quarantined.
+     */
+    private static long copy(SQLiteDatabase db, long checkpoint, int batchSize) {
+        long last = batchEnd(db, OLD_MASS, checkpoint, batchSize);
+        if (last == DONE) {
+            db.execSQL("DROP TABLE " + OLD_MASS);
+            DatabaseHelper.createRollupSchema(db);
+            DatabaseHelper.createChangeLog(db);
+            return 0; // Rebuild rollups from the first user
+        }
+
+        String date = RebuildTablesMigration.COLUMN_DATE;
+        String mass = RebuildTablesMigration.COLUMN_MASS;
+        String user = DatabaseHelper.COLUMN_USER_ID_FK;
+        String inRange = "rowid > ? AND rowid <= ?";
+        String owned = user + " IN (SELECT " + DatabaseHelper.COLUMN_USER_ID + " FROM " + DatabaseHelper.TABLE_USERS + ")";
+        String ownedRow = inRange + " AND " + owned;
+        // date() also accepts "2024-02-30", as 03-01, so a date is canonical only if it comes back unchanged
+        String canonical = "date(" + date + ", '+0 days') = " + date + " AND " + mass + " IS NOT NULL";
+        String day = "CAST(julianday(" + date + ") - " + JULIAN_EPOCH + " AS INTEGER)";
+        Object[] range = {checkpoint, last};
+
+        db.execSQL("INSERT INTO " + DatabaseHelper.TABLE_MASS_QUARANTINE + " (" + user + ", " + date + ", " + mass + ")" +
+                " SELECT " + user + ", " + date + ", " + mass + " FROM " + OLD_MASS +
+                " WHERE " + inRange + " AND NOT " + owned + " ORDER BY rowid", range);
+        // Logs of earlier batches that a canonical row of this one replaces
+        db.execSQL("INSERT INTO " + DatabaseHelper.TABLE_MASS_QUARANTINE + " (" + user + ", " + date + ", " + mass + ")" +
+                " SELECT " + user + ", " + CONVERTED_DATE + ", " + CONVERTED_MASS + " FROM " + DatabaseHelper.TABLE_MASS +
+                " AS m WHERE EXISTS (SELECT 1 FROM " + OLD_MASS + " AS o WHERE " + ownedRow + " AND " + canonical +
+                " AND o." + user + " = m." + user + " AND " + day + " = m." + DatabaseHelper.COLUMN_DAY + ")", range);
+        // Canonical rows of this batch that a later canonical row of the same day replaces
+        db.execSQL("INSERT INTO " + DatabaseHelper.TABLE_MASS_QUARANTINE + " (" + user + ", " + date + ", " + mass + ")" +
+                " SELECT " + user + ", " + date + ", " + mass + " FROM " + OLD_MASS + " AS o" +
+                " WHERE " + ownedRow + " AND " + canonical + " AND EXISTS (SELECT 1 FROM " + OLD_MASS + " AS l" +
+                " WHERE l.rowid > o.rowid AND l.rowid <= ? AND l." + user + " = o." + user +
+                " AND l." + date + " = o." + date + " AND l." + mass + " IS NOT NULL) ORDER BY rowid",
+                new Object[]{checkpoint, last, last});
+        // In rowid order, so the latest log of each day is the one left
+        db.execSQL("INSERT OR REPLACE INTO " + DatabaseHelper.TABLE_MASS + " (" +
+                user + ", " + DatabaseHelper.COLUMN_DAY + ", " + DatabaseHelper.COLUMN_MASS_GRAMS + ")" +
+                " SELECT " + user + ", " + day + ", " +
+                "CAST(round(" + mass + " * " + MassGrams.PER_UNIT + ") AS INTEGER)" +
+                " FROM " + OLD_MASS +
+                " WHERE " + ownedRow + " AND " + canonical +
+                " ORDER BY rowid",
+                range);
+        recover(db, checkpoint, last, ownedRow, canonical);
+        return last;
+    }
+
+    /**
+     * Converts the batch's rows whose date is not canonical but can be read,
+     * and moves the rest to the quarantine table. A converted row replaces
+     * the day's log, which is quarantined, unless a later row of the batch
+     * already wrote that day, in which case the converted row is quarantined.
+     */
+    private static void recover(SQLiteDatabase db, long checkpoint, long last, String ownedRow, String canonical) {
+        String date = RebuildTablesMigration.COLUMN_DATE;
+        String mass = RebuildTablesMigration.COLUMN_MASS;
+        String[] range = {String.valueOf(checkpoint), String.valueOf(last)};
+        try (Cursor cursor = db.rawQuery("SELECT rowid, " + DatabaseHelper.COLUMN_USER_ID_FK + ", " + date + ", " +
+                mass + " FROM " + OLD_MASS + " WHERE " + ownedRow + " AND NOT coalesce(" + canonical + ", 0)" +
+                " ORDER BY rowid", range)) {
+            if (cursor.getCount() == 0) {
+                return;
+            }
+            SQLiteStatement replace = db.compileStatement("INSERT OR REPLACE INTO " + DatabaseHelper.TABLE_MASS +
+                    " (" + DatabaseHelper.COLUMN_USER_ID_FK + ", " + DatabaseHelper.COLUMN_DAY + ", " +
+                    DatabaseHelper.COLUMN_MASS_GRAMS + ") VALUES (?, ?, ?)");
+            SQLiteStatement quarantine = db.compileStatement("INSERT INTO " + DatabaseHelper.TABLE_MASS_QUARANTINE +
+                    " (" + DatabaseHelper.COLUMN_USER_ID_FK + ", " + date + ", " + mass + ") VALUES (?, ?, ?)");
+            SQLiteStatement replaced = db.compileStatement("INSERT INTO " + DatabaseHelper.TABLE_MASS_QUARANTINE +
+                    " (" + DatabaseHelper.COLUMN_USER_ID_FK + ", " + date + ", " + mass + ")" +
+                    " SELECT " + DatabaseHelper.COLUMN_USER_ID_FK + ", " + CONVERTED_DATE + ", " + CONVERTED_MASS +
+                    " FROM " + DatabaseHelper.TABLE_MASS + " WHERE " + DatabaseHelper.COLUMN_USER_ID_FK + " = ? AND " +
+                    DatabaseHelper.COLUMN_DAY + " = ?");
+            try {
+                while (cursor.moveToNext()) {
+                    long rowid = cursor.getLong(0);
+                    long user = cursor.getLong(1);
+                    String text = cursor.isNull(2) ? null : cursor.getString(2);
+                    int day = recoverDay(text);
+                    if (day != EpochDays.INVALID && !cursor.isNull(3)
+                            && !writtenLater(db, user, EpochDays.format(day), rowid, last)) {
+                        replaced.bindLong(1, user);
+                        replaced.bindLong(2, day);
+                        replaced.executeInsert();
+                        replace.bindLong(1, user);
+                        replace.bindLong(2, day);
+                        replace.bindLong(3, MassGrams.of(cursor.getDouble(3)));
+                        replace.executeInsert();
+                        continue;
+                    }
+                    quarantine.bindLong(1, user);
+                    if (text == null) {
+                        quarantine.bindNull(2);
+                    } else {
+                        quarantine.bindString(2, text);
+                    }
+                    if (cursor.isNull(3)) {
+                        quarantine.bindNull(3);
+                    } else {
+                        quarantine.bindDouble(3, cursor.getDouble(3));
+                    }
+                    quarantine.executeInsert();
+                }
+            } finally {
+                replace.close();
+                quarantine.close();
+                replaced.close();
+            }
+        }
+    }
+
+    /**
+     * @return True if a later canonical row of the batch logged the same day.
+     */
+    private static boolean writtenLater(SQLiteDatabase db, long user, String canonicalDate, long rowid, long last) {
+        return CursorRows.firstLong(db.rawQuery("SELECT 1 FROM " + OLD_MASS + " WHERE " +
+                DatabaseHelper.COLUMN_USER_ID_FK + " = ? AND " + RebuildTablesMigration.COLUMN_DATE + " = ?" +
+                " AND " + RebuildTablesMigration.COLUMN_MASS + " IS NOT NULL AND rowid > ? AND rowid <= ? LIMIT 1",
+                new String[]{String.valueOf(user), canonicalDate, String.valueOf(rowid), String.valueOf(last)}), 0) == 1;
+    }
+
+    /**
+     * Reads a date typed in another layout: year first ("2024-3-1",
+     * "2024/03/01", "2024.03.01"), or year last with the day and month in
+     * either order ("01/03/2024") when only one order names a real day. A
+     * trailing time is ignored, and digits of any script are accepted.
+     *
+     * @param text The date as stored.
+     * @return The epoch day, or INVALID if the date cannot be read or is ambiguous.
+     */
+    static int recoverDay(String text) {
+        if (text == null) {
+            return EpochDays.INVALID;
+        }
+        String trimmed = text.trim();
+        int time = indexOfAny(trimmed, 'T', ' ');
+        String[] parts = (time < 0 ? trimmed : trimmed.substring(0, time)).split("[-/.]", -1);
+        if (parts.length != 3) {
+            return EpochDays.INVALID;
+        }
+        int[] fields = new int[3];
+        for (int i = 0; i < 3; i++) {
+            fields[i] = number(parts[i]);
+            if (fields[i] < 0) {
+                return EpochDays.INVALID;
+            }
+        }
+        if (parts[0].length() == 4) {
+            return toEpochDay(fields[0], fields[1], fields[2]);
+        }
+        if (parts[2].length() != 4) {
+            return EpochDays.INVALID; // A two-digit year could be any century
+        }
+        int dayFirst = toEpochDay(fields[2], fields[1], fields[0]);
+        int monthFirst = toEpochDay(fields[2], fields[0], fields[1]);
+        if (dayFirst == EpochDays.INVALID || dayFirst == monthFirst) {
+            return monthFirst;
+        }
+        return monthFirst == EpochDays.INVALID ? dayFirst : EpochDays.INVALID; // 01/03 could be either
+    }
+
+    private static int indexOfAny(String text, char first, char second) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == first || c == second) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The value of one to four digits, or -1 if the text is anything else.
+     */
+    private static int number(String text) {
+        if (text.isEmpty() || text.length() > 4) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int digit = Character.digit(text.charAt(i), 10);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return The epoch day of a calendar date, or INVALID if there is no such day.
+     */
+    private static int toEpochDay(int year, int month, int day) {
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            return EpochDays.INVALID;
+        }
+        String date = year + (month < 10 ? "-0" : "-") + month + (day < 10 ? "-0" : "-") + day;
+        return year < 1000 ? EpochDays.INVALID : EpochDays.tryParse(date);
+    }
+
+    /**
+     * Rebuilds the rollups of the next user after the checkpoint.
+     */
+    private static long backfill(SQLiteDatabase db, long checkpoint) {
+        long user = CursorRows.firstLong(db.rawQuery("SELECT MIN(" + DatabaseHelper.COLUMN_USER_ID_FK + ") FROM " +
+                DatabaseHelper.TABLE_MASS + " WHERE " + DatabaseHelper.COLUMN_USER_ID_FK + " > ?",
+                new String[]{String.valueOf(checkpoint)}), DONE);
+        if (user == DONE) {
+            return DONE;
+        }
+        DatabaseHelper.backfillRollups(db, user);
+        return user;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.masstracker;
+
+import android.database.Cursor;
+
+/**
+ * CursorRows maps query results straight into primitives. Column indices
+ * are resolved by name once per query rather than per row, and rows go to a
+ * callback or into caller-owned arrays, so reading a large result allocates
+ * nothing per row. Every method takes ownership of the cursor and closes it,
+ * whether it had rows or not and whether mapping threw or not.
+ */
+public final class CursorRows {
+
+    private CursorRows() {
+    }
+
+    /**
+     * Passes each (day, mass_g) row to a visitor.
+     *
+     * @param cursor  The result, with day and mass_g columns; it is closed.
+     * @param visitor Receives each row.
+     * @return The number of rows read.
+     */
+    public static int forEachDayMass(Cursor cursor, MassStore.Visitor visitor) {
+        try (Cursor rows = cursor) {
+            int day = rows.getColumnIndexOrThrow(DatabaseHelper.COLUMN_DAY);
+            int grams = rows.getColumnIndexOrThrow(DatabaseHelper.COLUMN_MASS_GRAMS);
+            int count = 0;
+            while (rows.moveToNext()) {
+                visitor.visit(rows.getInt(day), rows.getLong(grams));
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Reads (day, mass_g) rows into arrays, converting masses with MassGrams,
+     * until the result or the arrays run out.
+     *
+     * @param cursor The result, with day and mass_g columns; it is closed.
+     * @param days   Receives the days.
+     * @param masses Receives the masses, as long as days.
+     * @return The number of rows read.
+     */
+    public static int readDayMass(Cursor cursor, int[] days, double[] masses) {
+        try (Cursor rows = cursor) {
+            int day = rows.getColumnIndexOrThrow(DatabaseHelper.COLUMN_DAY);
+            int grams = rows.getColumnIndexOrThrow(DatabaseHelper.COLUMN_MASS_GRAMS);
+            int count = 0;
+            while (count < days.length && rows.moveToNext()) {
+                days[count] = rows.getInt(day);
+                masses[count] = MassGrams.toMass(rows.getLong(grams));
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Reads the first column of the first row, for queries such as MAX() or
+     * a single-column lookup.
+     *
+     * @param cursor   The result; it is closed.
+     * @param fallback Returned when there is no row or the value is NULL.
+     * @return The value, or fallback.
+     */
+    public static long firstLong(Cursor cursor, long fallback) {
+        try (Cursor rows = cursor) {
+            return rows.moveToFirst() && !rows.isNull(0) ? rows.getLong(0) : fallback;
+        }
+    }
+
+    /**
+     * Reads the first column of the first row as text.
+     *
+     * @param cursor   The result; it is closed.
+     * @param fallback Returned when there is no row.
+     * @return The value, or fallback.
+     */
+    public static String firstString(Cursor cursor, String fallback) {
+        try (Cursor rows = cursor) {
+            return rows.moveToFirst() ? rows.getString(0) : fallback;
+        }
+    }
+}
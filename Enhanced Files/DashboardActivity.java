@@ -2,6 +2,8 @@ package com.example.masstracker;
 
 import android.app.AlertDialog;
 import android.os.Bundle;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.GridView;
@@ -10,15 +12,14 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.ViewModelProvider;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 /**
  * DashboardActivity manages the main user interface for displaying, searching,
  * and interacting with mass logs. It supports pagination, sorting, and searching
  * functionalities.
+ *
+ * The first frame is drawn from the saved DashboardSnapshot without waiting
+ * for the database, so its time does not grow with the history. It is
+ * recorded in QueryMetrics as "dashboard.first_frame".
  */
 public class DashboardActivity extends AppCompatActivity {
 
@@ -27,18 +28,17 @@ public class DashboardActivity extends AppCompatActivity {
     private Button nextPageButton, prevPageButton, sortButton, searchButton;
     private EditText searchEditText;
     private MassLogAdapter adapter;
-    private HashMap<String, Double> massLogs = new HashMap<>();
-    private List<Map.Entry<String, Double>> paginatedList = new ArrayList<>();
-    private int currentPage = 0;
+    private int userId;
     private final int PAGE_SIZE = 5; // Number of logs per page
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long start = System.nanoTime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_dashboard);
 
         // Initialize ViewModel and UI components
-        viewModel = new DashboardViewModel(this);
+        viewModel = new ViewModelProvider(this).get(DashboardViewModel.class);
         massGridView = findViewById(R.id.massGridView);
         nextPageButton = findViewById(R.id.nextPageButton);
         prevPageButton = findViewById(R.id.prevPageButton);
@@ -46,60 +46,85 @@ public class DashboardActivity extends AppCompatActivity {
         searchButton = findViewById(R.id.searchButton);
         searchEditText = findViewById(R.id.searchEditText);
 
-        adapter = new MassLogAdapter(this, new ArrayList<>());
+        userId = getIntent().getIntExtra("userId", -1);
+        if (userId == -1) {
+            Toast.makeText(this, "Error: User ID not found.", Toast.LENGTH_SHORT).show();
+            finish(); // Close the activity if the user ID is not passed correctly
+            return;
+        }
+
+        adapter = new MassLogAdapter(this, massGridView);
         massGridView.setAdapter(adapter);
 
+        // Observe results published by the ViewModel's background queries
+        viewModel.setUserId(userId);
+        double goal = getIntent().getDoubleExtra("goal", GoalTracker.NO_GOAL);
+        if (goal != GoalTracker.NO_GOAL) {
+            viewModel.setGoal(goal);
+        }
+        viewModel.getPage().observe(this, this::paginateLogs);
+        viewModel.getGoal().observe(this, this::showGoal);
+        viewModel.getMessage().observe(this, text -> Toast.makeText(this, text, Toast.LENGTH_SHORT).show());
+
         // Load data and set event listeners
-        loadMassData();
-        nextPageButton.setOnClickListener(v -> nextPage());
-        prevPageButton.setOnClickListener(v -> prevPage());
+        if (viewModel.getPage().getValue() == null) {
+            viewModel.loadInitialPage(PAGE_SIZE); // Not reloaded after a configuration change
+        }
+        recordFirstFrame(start);
+        nextPageButton.setOnClickListener(v -> viewModel.nextPage(PAGE_SIZE));
+        prevPageButton.setOnClickListener(v -> viewModel.previousPage(PAGE_SIZE));
         sortButton.setOnClickListener(v -> sortLogs());
         searchButton.setOnClickListener(v -> searchLogs());
     }
 
     /**
-     * Loads mass log data from the ViewModel and displays the first page.
+     * Records the time from onCreate to the first frame, measured when the
+     * view tree is about to draw for the first time.
+     *
+     * @param start The value of System.nanoTime() when onCreate started.
      */
-    private void loadMassData() {
-        massLogs = viewModel.getMassLogs();
-        paginateLogs();
+    private void recordFirstFrame(long start) {
+        View content = massGridView.getRootView();
+        content.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                content.getViewTreeObserver().removeOnPreDrawListener(this);
+                MassPage page = viewModel.getPage().getValue();
+                QueryMetrics.getInstance().record("dashboard.first_frame", start, page != null ? page.size() : 0, 0);
+                return true;
+            }
+        });
     }
 
     /**
-     * Paginates logs based on the current page and updates the UI.
+     * Shows the user's goal in the title.
+     *
+     * @param goal The goal mass, or GoalTracker.NO_GOAL.
      */
-    private void paginateLogs() {
-        paginatedList = viewModel.getPaginatedLogs(massLogs, currentPage, PAGE_SIZE);
-        List<String> displayList = new ArrayList<>();
-        for (Map.Entry<String, Double> entry : paginatedList) {
-            displayList.add(entry.getKey() + " - " + entry.getValue());
+    private void showGoal(Double goal) {
+        if (goal != GoalTracker.NO_GOAL) {
+            setTitle("Goal: " + goal);
         }
-        adapter.updateData(displayList);
-        updatePaginationButtons();
     }
 
     /**
-     * Updates the state of pagination buttons based on the current page.
+     * Shows a page of logs and updates the UI.
+     *
+     * @param page The page to display.
      */
-    private void updatePaginationButtons() {
-        prevPageButton.setEnabled(currentPage > 0);
-        nextPageButton.setEnabled(viewModel.hasNextPage(massLogs, currentPage, PAGE_SIZE));
+    private void paginateLogs(MassPage page) {
+        adapter.updateData(page);
+        updatePaginationButtons(page);
     }
 
     /**
-     * Moves to the next page and refreshes the data.
-     */
-    private void nextPage() {
-        currentPage++;
-        paginateLogs();
-    }
-
-    /**
-     * Moves to the previous page and refreshes the data.
+     * Updates the state of pagination buttons based on the current page.
+     *
+     * @param page The page being displayed.
      */
-    private void prevPage() {
-        currentPage--;
-        paginateLogs();
+    private void updatePaginationButtons(MassPage page) {
+        prevPageButton.setEnabled(page.hasPrevious());
+        nextPageButton.setEnabled(page.hasNext());
     }
 
     /**
@@ -109,16 +134,13 @@ public class DashboardActivity extends AppCompatActivity {
         String[] sortOptions = {"Date Ascending", "Date Descending", "Mass Ascending", "Mass Descending"};
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Sort by")
-                .setItems(sortOptions, (dialog, which) -> {
-                    massLogs = viewModel.sortLogs(massLogs, which);
-                    currentPage = 0;
-                    paginateLogs();
-                })
+                .setItems(sortOptions, (dialog, which) -> viewModel.sortLogs(which, PAGE_SIZE))
                 .show();
     }
 
     /**
      * Searches for a log based on the user's input, either by date or mass.
+     * The result arrives as a message once the background search finishes.
      */
     private void searchLogs() {
         String query = searchEditText.getText().toString().trim();
@@ -126,16 +148,6 @@ public class DashboardActivity extends AppCompatActivity {
             Toast.makeText(this, "Enter a search query", Toast.LENGTH_SHORT).show();
             return;
         }
-
-        try {
-            // Attempt to search by mass
-            double massQuery = Double.parseDouble(query);
-            String closestLog = viewModel.searchByMass(massLogs, massQuery);
-            Toast.makeText(this, "Closest log: " + closestLog, Toast.LENGTH_SHORT).show();
-        } catch (NumberFormatException e) {
-            // Search by date if input is not a valid number
-            String closestLog = viewModel.searchByDate(massLogs, query);
-            Toast.makeText(this, "Closest log: " + closestLog, Toast.LENGTH_SHORT).show();
-        }
+        viewModel.search(query);
     }
 }
@@ -0,0 +1,123 @@
+package com.example.masstracker;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * DashboardSnapshot is the last page a user viewed on the dashboard, and
+ * their goal, kept in SharedPreferences so a cold start can draw its first
+ * frame before the database is open. It holds at most one page, so reading
+ * it costs the same however long the history is.
+ *
+ * A snapshot is stored as one string per user:
+ * "order|hasNext|hasPrevious|goal|day:grams,day:grams,...". A snapshot that
+ * cannot be parsed is ignored rather than shown.
+ */
+public class DashboardSnapshot {
+
+    private static final String PREFS_NAME = "dashboard_snapshot";
+    private static final int VERSION = 1;
+
+    private final MassPage page;
+    private final double goal;
+
+    /**
+     * Constructor for DashboardSnapshot.
+     *
+     * @param page The page shown.
+     * @param goal The user's goal mass, or GoalTracker.NO_GOAL.
+     */
+    public DashboardSnapshot(MassPage page, double goal) {
+        this.page = page;
+        this.goal = goal;
+    }
+
+    /**
+     * @return The page shown when the snapshot was taken.
+     */
+    public MassPage getPage() {
+        return page;
+    }
+
+    /**
+     * @return The user's goal mass, or GoalTracker.NO_GOAL.
+     */
+    public double getGoal() {
+        return goal;
+    }
+
+    /**
+     * Reads a user's snapshot. The preferences file is a few hundred bytes,
+     * so this is cheap enough for the main thread before the first frame.
+     *
+     * @param context The context used to open the preferences.
+     * @param userId  The ID of the user.
+     * @return The snapshot, or null if there is none or it cannot be read.
+     */
+    public static DashboardSnapshot load(Context context, int userId) {
+        String value = prefs(context).getString(key(userId), null);
+        return value != null ? decode(value) : null;
+    }
+
+    /**
+     * Saves a user's snapshot, replacing the previous one. The write happens
+     * asynchronously.
+     *
+     * @param context  The context used to open the preferences.
+     * @param userId   The ID of the user.
+     * @param snapshot The snapshot to save.
+     */
+    public static void save(Context context, int userId, DashboardSnapshot snapshot) {
+        prefs(context).edit().putString(key(userId), snapshot.encode()).apply();
+    }
+
+    private String encode() {
+        StringBuilder out = new StringBuilder(32 + page.size() * 16);
+        out.append(VERSION).append('|')
+                .append(page.getOrder().ordinal()).append('|')
+                .append(page.hasNext() ? 1 : 0).append('|')
+                .append(page.hasPrevious() ? 1 : 0).append('|')
+                .append(Double.doubleToLongBits(goal)).append('|');
+        for (int i = 0; i < page.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            // Masses are stored as grams, the same integers the database holds
+            out.append(page.dayAt(i)).append(':').append(MassGrams.of(page.massAt(i)));
+        }
+        return out.toString();
+    }
+
+    private static DashboardSnapshot decode(String value) {
+        String[] fields = value.split("\\|", -1);
+        if (fields.length != 6 || !String.valueOf(VERSION).equals(fields[0])) {
+            return null;
+        }
+        try {
+            SortOrder order = SortOrder.values()[Integer.parseInt(fields[1])];
+            boolean hasNext = "1".equals(fields[2]);
+            boolean hasPrevious = "1".equals(fields[3]);
+            double goal = Double.longBitsToDouble(Long.parseLong(fields[4]));
+            String[] entries = fields[5].isEmpty() ? new String[0] : fields[5].split(",");
+            int[] days = new int[entries.length];
+            double[] masses = new double[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                int colon = entries[i].indexOf(':');
+                days[i] = Integer.parseInt(entries[i].substring(0, colon));
+                masses[i] = MassGrams.toMass(Long.parseLong(entries[i].substring(colon + 1)));
+            }
+            return new DashboardSnapshot(
+                    new MassPage(order, days, masses, entries.length, hasNext, hasPrevious), goal);
+        } catch (RuntimeException e) {
+            return null; // Written by a different version or damaged; the live page replaces it anyway
+        }
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static String key(int userId) {
+        return "page_" + userId;
+    }
+}
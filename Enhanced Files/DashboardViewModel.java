@@ -1,115 +1,335 @@
 package com.example.masstracker;
 
-import android.content.Context;
+import android.Manifest;
+import android.app.Application;
+import android.content.pm.PackageManager;
+import android.telephony.SmsManager;
 
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
-import androidx.lifecycle.ViewModel;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
  * DashboardViewModel provides business logic for the DashboardActivity,
- * handling data retrieval, sorting, searching, and pagination.
+ * handling data retrieval, sorting, searching, and pagination. Every database
+ * call runs on MassQueryExecutor and its result is published through LiveData,
+ * so the UI thread never waits on SQLite.
+ *
+ * The database is opened in the background as soon as the ViewModel is
+ * created. Meanwhile the dashboard shows the DashboardSnapshot saved with the
+ * last page loaded, then replaces it with the live page. After that the page
+ * shown is re-read whenever InvalidationTracker reports a change to the mass
+ * table, whoever made it.
  */
-public class DashboardViewModel {
+public class DashboardViewModel extends AndroidViewModel {
 
-    private MassRepository repository;
+    private static final String GOAL_MESSAGE = "Congratulations! You've reached your goal!";
+    private static final String GOAL_SMS_NUMBER = "1234567890";
 
-    public DashboardViewModel(Context context) {
-        repository = new MassRepository(context);
+    private final MassRepository repository;
+    private final MassQueryExecutor executor = MassQueryExecutor.getInstance();
+    private final InvalidationTracker invalidations = InvalidationTracker.getInstance();
+    private final InvalidationTracker.Observer pageObserver = tables -> onLogsChanged();
+
+    // A newer page request supersedes an older one, and likewise for searches
+    private final MassQueryExecutor.Slot pageSlot = new MassQueryExecutor.Slot();
+    private final MassQueryExecutor.Slot searchSlot = new MassQueryExecutor.Slot();
+
+    private final MutableLiveData<MassPage> page = new MutableLiveData<>();
+    private final MutableLiveData<String> message = new MutableLiveData<>();
+    private final MutableLiveData<Double> goal = new MutableLiveData<>();
+    private final Future<?> warmUp;
+
+    private int userId = -1;
+    private int pageSize = 1; // Of the page last requested, for reloads
+    private GoalTracker goalTracker;
+
+    // Read by background tasks when they save a snapshot
+    private volatile double goalMass = GoalTracker.NO_GOAL;
+
+    public DashboardViewModel(@NonNull Application application) {
+        super(application);
+        repository = new MassRepository(application);
+        warmUp = executor.submit(() -> {
+            repository.warmUp(); // Schema creation and upgrades run here, not on the main thread
+            return null;
+        });
+        invalidations.addObserver(pageObserver, DatabaseHelper.TABLE_MASS);
+    }
+
+    /**
+     * Sets the user whose logs are shown.
+     *
+     * @param userId The ID of the user.
+     */
+    public void setUserId(int userId) {
+        if (this.userId != userId) {
+            this.userId = userId;
+            // Read through the executor, so the read holds the swap gate like any other query
+            goalTracker = new GoalTracker(getApplication(), userId, this::onGoalReached,
+                    () -> executor.submit(() -> repository.getFirstPage(userId, SortOrder.DATE_DESCENDING, 1)).get());
+        }
+    }
+
+    /**
+     * Sets the user's goal mass.
+     *
+     * @param goal The goal mass, or GoalTracker.NO_GOAL.
+     * @throws IllegalStateException If setUserId has not been called.
+     */
+    public void setGoal(double goal) {
+        GoalTracker tracker = requireTracker();
+        goalMass = goal;
+        this.goal.setValue(goal);
+        tracker.setGoal(goal);
+    }
+
+    /**
+     * @return The page currently shown.
+     */
+    public LiveData<MassPage> getPage() {
+        return page;
+    }
+
+    /**
+     * @return The user's goal mass, once known.
+     */
+    public LiveData<Double> getGoal() {
+        return goal;
     }
 
     /**
-     * Retrieves a paginated subset of logs.
+     * @return Search results and other messages for the user.
+     */
+    public LiveData<String> getMessage() {
+        return message;
+    }
+
+    /**
+     * Shows the user's saved snapshot straight away, if there is one, and then
+     * the live page it was taken from once the database has been read. Without
+     * a snapshot this loads the first page. Must be called on the main thread.
+     * The time to show the snapshot is recorded as "dashboard.snapshot" and
+     * does not depend on the size of the history.
      *
-     * @param logs     The complete set of logs.
-     * @param page     The current page number.
      * @param pageSize The number of items per page.
-     * @return A list of entries representing the logs for the current page.
      */
-    public List<Map.Entry<String, Double>> getPaginatedLogs(HashMap<String, Double> logs, int page, int pageSize) {
-        List<Map.Entry<String, Double>> list = new ArrayList<>(logs.entrySet());
-        int start = page * pageSize;
-        int end = Math.min(start + pageSize, list.size());
-        return list.subList(start, end);
+    public void loadInitialPage(int pageSize) {
+        long start = System.nanoTime();
+        DashboardSnapshot snapshot = DashboardSnapshot.load(getApplication(), userId);
+        if (snapshot == null) {
+            loadFirstPage(pageSize);
+            return;
+        }
+        this.pageSize = pageSize;
+        MassPage saved = snapshot.getPage();
+        page.setValue(saved);
+        QueryMetrics.getInstance().record("dashboard.snapshot", start, saved.size(), 0);
+        if (goal.getValue() == null && snapshot.getGoal() != GoalTracker.NO_GOAL) {
+            goalMass = snapshot.getGoal();
+            goal.setValue(goalMass);
+        }
+        int user = userId;
+        executor.submitLatest(pageSlot, () -> remember(user, repository.reloadPage(user, saved, pageSize)), live -> {
+            page.setValue(live);
+            QueryMetrics.getInstance().record("dashboard.live", start, live.size(), 0);
+        });
     }
 
     /**
-     * Determines if there are more pages of logs.
+     * Loads the first page of logs in date order straight from the database,
+     * without loading the rest of the history.
      *
-     * @param logs     The complete set of logs.
-     * @param page     The current page number.
      * @param pageSize The number of items per page.
-     * @return True if there are more pages; false otherwise.
      */
-    public boolean hasNextPage(HashMap<String, Double> logs, int page, int pageSize) {
-        return (page + 1) * pageSize < logs.size();
+    public void loadFirstPage(int pageSize) {
+        int user = userId;
+        loadPage(pageSize, () -> repository.getFirstPage(user, SortOrder.DATE_ASCENDING, pageSize));
     }
 
     /**
-     * Sorts logs based on the specified sorting criteria.
+     * Loads the page after the one currently shown.
      *
-     * @param logs   The complete set of logs.
-     * @param option The sorting option (0-3).
-     * @return A sorted HashMap of logs.
-     */
-    public HashMap<String, Double> sortLogs(HashMap<String, Double> logs, int option) {
-        List<Map.Entry<String, Double>> list = new ArrayList<>(logs.entrySet());
-        switch (option) {
-            case 0: // Date Ascending
-                list.sort(Map.Entry.comparingByKey());
-                break;
-            case 1: // Date Descending
-                list.sort((a, b) -> b.getKey().compareTo(a.getKey()));
-                break;
-            case 2: // Mass Ascending
-                list.sort(Map.Entry.comparingByValue());
-                break;
-            case 3: // Mass Descending
-                list.sort((a, b) -> b.getValue().compareTo(a.getValue()));
-                break;
+     * @param pageSize The number of items per page.
+     */
+    public void nextPage(int pageSize) {
+        MassPage current = page.getValue();
+        if (current == null) {
+            loadFirstPage(pageSize);
+            return;
         }
-        HashMap<String, Double> sortedLogs = new LinkedHashMap<>();
-        for (Map.Entry<String, Double> entry : list) {
-            sortedLogs.put(entry.getKey(), entry.getValue());
+        int user = userId;
+        loadPage(pageSize, () -> repository.getNextPage(user, current, pageSize));
+    }
+
+    /**
+     * Loads the page before the one currently shown.
+     *
+     * @param pageSize The number of items per page.
+     */
+    public void previousPage(int pageSize) {
+        MassPage current = page.getValue();
+        if (current == null) {
+            loadFirstPage(pageSize);
+            return;
         }
-        return sortedLogs;
+        int user = userId;
+        loadPage(pageSize, () -> repository.getPreviousPage(user, current, pageSize));
     }
 
     /**
-     * Finds the log closest to the specified mass.
+     * Orders logs based on the specified sorting criteria. SQLite reads the
+     * first page straight from the primary key or covering index, so sorting costs
+     * no more than reading the page shown.
      *
-     * @param logs The complete set of logs.
-     * @param mass The target mass.
-     * @return The closest log as a String.
+     * @param option   The sorting option (0-3).
+     * @param pageSize The number of items per page.
+     */
+    public void sortLogs(int option, int pageSize) {
+        int user = userId;
+        SortOrder order = SortOrder.fromOption(option);
+        loadPage(pageSize, () -> repository.getFirstPage(user, order, pageSize));
+    }
+
+    /**
+     * Searches the logs by mass if the query is a number, otherwise by date,
+     * and publishes the closest log as a message.
+     *
+     * @param query The user's search text.
      */
-    public String searchByMass(HashMap<String, Double> logs, double mass) {
-        return logs.entrySet().stream()
-                .min((a, b) -> Double.compare(Math.abs(a.getValue() - mass), Math.abs(b.getValue() - mass)))
-                .map(entry -> entry.getKey() + " - " + entry.getValue())
-                .orElse("No logs found");
+    public void search(String query) {
+        executor.submitLatest(searchSlot, () -> {
+            MassSeries logs = getLoadedLogs();
+            long start = System.nanoTime();
+            synchronized (logs) {
+                String result;
+                try {
+                    // Attempt to search by mass
+                    result = "Closest log: " + MassLogQueries.searchByMass(logs, Double.parseDouble(query));
+                } catch (NumberFormatException e) {
+                    // Search by date if input is not a valid number
+                    result = "Closest log: " + MassLogQueries.searchByDate(logs, query);
+                }
+                QueryMetrics.getInstance().record("dashboard.search", start, 1, 0);
+                return result;
+            }
+        }, message::setValue);
     }
 
     /**
-     * Finds the log closest to the specified date.
+     * Adds a mass log. The page shown is not re-read here: the write reaches
+     * InvalidationTracker, which reloads it once a burst of writes ends. The
+     * repository patches the cached history, so searches see the new log.
      *
-     * @param logs The complete set of logs.
-     * @param date The target date.
-     * @return The closest log as a String.
+     * @param date     The date of the log.
+     * @param mass     The mass value.
+     * @param pageSize The number of items per page.
+     * @throws IllegalStateException If setUserId has not been called.
      */
-    public String searchByDate(HashMap<String, Double> logs, String date) {
-        return logs.entrySet().stream()
-                .min((a, b) -> Integer.compare(Math.abs(a.getKey().compareTo(date)), Math.abs(b.getKey().compareTo(date))))
-                .map(entry -> entry.getKey() + " - " + entry.getValue())
-                .orElse("No logs found");
+    public void addMassLog(String date, double mass, int pageSize) {
+        GoalTracker tracker = requireTracker(); // Before anything is written for no user
+        this.pageSize = pageSize;
+        int user = userId;
+        executor.submit(() -> {
+            int day = EpochDays.tryParse(date);
+            if (day == EpochDays.INVALID || !repository.addMassLog(user, date, mass)) {
+                message.postValue("Failed to add mass log");
+                return null;
+            }
+            tracker.onReading(day, mass);
+            message.postValue("Mass log added");
+            return null;
+        });
     }
 
-    public HashMap<String, Double> getMassLogs(int userId) {
-        return (HashMap<String, Double>) repository.getMassLogs(userId);
+    /**
+     * @return The goal tracker of the user set with setUserId.
+     * @throws IllegalStateException If no user has been set.
+     */
+    private GoalTracker requireTracker() {
+        if (goalTracker == null) {
+            throw new IllegalStateException("setUserId must be called first");
+        }
+        return goalTracker;
+    }
+
+    @Override
+    protected void onCleared() {
+        invalidations.removeObserver(pageObserver);
+        warmUp.cancel(false);
+        pageSlot.cancel();
+        searchSlot.cancel();
+        // Closing the last reference waits for running queries, so do it off the main thread
+        executor.submitMaintenance(() -> {
+            repository.close();
+            return null;
+        });
+    }
+
+    /**
+     * Loads a page in the background, replacing any page request in flight,
+     * and saves it as the snapshot before showing it.
+     */
+    private void loadPage(int pageSize, Callable<MassPage> query) {
+        this.pageSize = pageSize;
+        int user = userId;
+        executor.submitLatest(pageSlot, () -> remember(user, query.call()), page::setValue);
+    }
+
+    /**
+     * Re-reads the page shown after its table changed. Called on the main
+     * thread by InvalidationTracker.
+     */
+    private void onLogsChanged() {
+        if (goalTracker != null) {
+            goalTracker.onLogsChanged(); // A delete may have removed the latest reading
+        }
+        reloadPage();
+    }
+
+    private void reloadPage() {
+        MassPage current = page.getValue();
+        if (current == null) {
+            return; // The initial load is still running and will read the change
+        }
+        int user = userId;
+        int size = pageSize;
+        loadPage(size, () -> repository.reloadPage(user, current, size));
+    }
+
+    /**
+     * Saves a freshly loaded page as the user's snapshot. Called on a
+     * background thread, before the page is published.
+     */
+    private MassPage remember(int user, MassPage loaded) {
+        DashboardSnapshot.save(getApplication(), user, new DashboardSnapshot(loaded, goalMass));
+        return loaded;
+    }
+
+    /**
+     * Announces a reached goal. Called on the goal tracker's dispatch thread,
+     * at most once per crossing.
+     */
+    private void onGoalReached(int user, double goal, double mass) {
+        message.postValue(GOAL_MESSAGE);
+        if (ContextCompat.checkSelfPermission(getApplication(), Manifest.permission.SEND_SMS)
+                == PackageManager.PERMISSION_GRANTED) {
+            SmsManager.getDefault().sendTextMessage(GOAL_SMS_NUMBER, null, GOAL_MESSAGE, null, null);
+        }
+    }
+
+    /**
+     * Returns the user's full history from the repository's cache, loading
+     * it on a miss. Concurrent callers share a single load. Must be called on
+     * a background thread.
+     */
+    private MassSeries getLoadedLogs() throws Exception {
+        int user = userId;
+        return executor.callShared("logs:" + user, () -> repository.getAllMassLogs(user));
     }
 }
@@ -0,0 +1,259 @@
+package com.example.masstracker;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * DatabaseBackup copies the live database to a file while the app keeps
+ * reading and writing it.
+ *
+ * In WAL mode SQLite only changes the main database file when it checkpoints
+ * the write-ahead log. The backup checkpoints everything into the main file,
+ * turns automatic checkpoints off so the file stays frozen at that commit,
+ * and copies it in chunks while new commits keep going to the WAL. Automatic
+ * checkpoints are turned back on afterwards, and the copy is checked with
+ * PRAGMA integrity_check before it replaces the target.
+ */
+public class DatabaseBackup {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    public static final long DEFAULT_PAUSE_MILLIS = 5;
+
+    private static final String TAG = "DatabaseBackup";
+    private static final int DEFAULT_AUTOCHECKPOINT = 1000; // SQLite's default, in pages
+    private static final int CHECKPOINT_ATTEMPTS = 5;
+    private static final long CHECKPOINT_RETRY_MILLIS = 50;
+
+    // Offsets of the file format write and read versions in the database header; 2 means WAL
+    private static final int HEADER_FORMAT_OFFSET = 18;
+
+    // Only one backup may toggle automatic checkpoints at a time
+    private static final Object LOCK = new Object();
+
+    /**
+     * Receives progress after each copied chunk, on the backup thread.
+     */
+    public interface ProgressListener {
+        /**
+         * @param bytesCopied        The number of bytes copied so far.
+         * @param totalBytes         The size of the database file.
+         * @param megabytesPerSecond The average copy rate since the backup started.
+         */
+        void onProgress(long bytesCopied, long totalBytes, double megabytesPerSecond);
+    }
+
+    /**
+     * Result summarises a finished backup.
+     */
+    public static class Result {
+        private final boolean successful;
+        private final long bytesCopied;
+        private final long elapsedMillis;
+        private final String message;
+
+        Result(boolean successful, long bytesCopied, long elapsedMillis, String message) {
+            this.successful = successful;
+            this.bytesCopied = bytesCopied;
+            this.elapsedMillis = elapsedMillis;
+            this.message = message;
+        }
+
+        public boolean isSuccessful() {
+            return successful;
+        }
+
+        public long getBytesCopied() {
+            return bytesCopied;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return "ok", or why the backup failed.
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        public double getMegabytesPerSecond() {
+            return megabytesPerSecond(bytesCopied, elapsedMillis);
+        }
+    }
+
+    private final DatabaseHelper dbHelper;
+    private final File source;
+    private final File target;
+    private final int chunkSize;
+    private final long pauseMillis;
+
+    /**
+     * Constructor for DatabaseBackup.
+     *
+     * @param dbHelper    The helper holding the open database.
+     * @param source      The database file.
+     * @param target      The backup file; replaced only if the backup succeeds.
+     * @param chunkSize   The number of bytes copied per chunk.
+     * @param pauseMillis How long to pause between chunks so foreground queries get the disk.
+     */
+    public DatabaseBackup(DatabaseHelper dbHelper, File source, File target, int chunkSize, long pauseMillis) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.dbHelper = dbHelper;
+        this.source = source;
+        this.target = target;
+        this.chunkSize = chunkSize;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * Runs the backup. This blocks until the copy is written and verified, so
+     * it must not be called on the UI thread.
+     *
+     * @param listener Receives progress after each chunk, or null.
+     * @return A summary of the backup.
+     */
+    public Result run(ProgressListener listener) {
+        synchronized (LOCK) {
+            File temp = new File(target.getPath() + ".tmp");
+            long start = System.currentTimeMillis();
+            long copied = 0;
+            try {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                if (db.isWriteAheadLoggingEnabled()) {
+                    pragma(db, "PRAGMA wal_autocheckpoint=0");
+                    try {
+                        checkpoint(db);
+                        copied = copy(temp, start, listener);
+                    } finally {
+                        pragma(db, "PRAGMA wal_autocheckpoint=" + DEFAULT_AUTOCHECKPOINT);
+                    }
+                } else {
+                    // Without a WAL, writers change the file in place, so they have to wait
+                    db.beginTransaction();
+                    try {
+                        copied = copy(temp, start, listener);
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+
+                String check = verify(temp);
+                if (!"ok".equals(check)) {
+                    temp.delete();
+                    return new Result(false, copied, System.currentTimeMillis() - start,
+                            "Integrity check failed: " + check);
+                }
+                if ((target.exists() && !target.delete()) || !temp.renameTo(target)) {
+                    temp.delete();
+                    return new Result(false, copied, System.currentTimeMillis() - start,
+                            "Could not replace " + target.getPath());
+                }
+                return new Result(true, copied, System.currentTimeMillis() - start, "ok");
+            } catch (IOException | SQLiteException e) {
+                Log.e(TAG, "Backup failed", e);
+                temp.delete();
+                return new Result(false, copied, System.currentTimeMillis() - start, String.valueOf(e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Moves every committed page from the WAL into the main file. Readers can
+     * hold a checkpoint back, so it is retried briefly before giving up.
+     */
+    private void checkpoint(SQLiteDatabase db) throws IOException {
+        for (int attempt = 0; attempt < CHECKPOINT_ATTEMPTS; attempt++) {
+            // The first column is 1 while readers block the checkpoint
+            if (CursorRows.firstLong(db.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null), 1) == 0) {
+                return; // Not busy: the main file now holds every commit
+            }
+            pause(CHECKPOINT_RETRY_MILLIS);
+        }
+        throw new IOException("WAL checkpoint kept being blocked by readers");
+    }
+
+    /**
+     * Copies the frozen main file to temp in chunks and marks the copy as a
+     * plain rollback-journal database, so it opens without a WAL file.
+     *
+     * @return The number of bytes copied.
+     */
+    private long copy(File temp, long start, ProgressListener listener) throws IOException {
+        FileChannel src = new FileInputStream(source).getChannel();
+        FileChannel dst = new FileOutputStream(temp).getChannel();
+        try {
+            long total = src.size();
+            long position = 0;
+            while (position < total) {
+                position += src.transferTo(position, Math.min(chunkSize, total - position), dst);
+                if (listener != null) {
+                    listener.onProgress(position, total,
+                            megabytesPerSecond(position, System.currentTimeMillis() - start));
+                }
+                if (position < total) {
+                    pause(pauseMillis);
+                }
+            }
+            if (total > HEADER_FORMAT_OFFSET + 1) {
+                dst.write(ByteBuffer.wrap(new byte[]{1, 1}), HEADER_FORMAT_OFFSET);
+            }
+            dst.force(true);
+            return position;
+        } finally {
+            src.close();
+            dst.close();
+        }
+    }
+
+    /**
+     * Opens the copy read-only and runs SQLite's integrity check on it.
+     *
+     * @return "ok", or the first problem found.
+     */
+    private static String verify(File file) {
+        SQLiteDatabase copy = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            return CursorRows.firstString(copy.rawQuery("PRAGMA integrity_check", null), "no result");
+        } finally {
+            copy.close();
+        }
+    }
+
+    /**
+     * Runs a pragma that returns a row, which execSQL does not allow.
+     */
+    private static void pragma(SQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            cursor.moveToFirst();
+        }
+    }
+
+    private static void pause(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Backup interrupted");
+        }
+    }
+
+    private static double megabytesPerSecond(long bytes, long elapsedMillis) {
+        return elapsedMillis <= 0 ? 0 : bytes / (1024.0 * 1024.0) / (elapsedMillis / 1000.0);
+    }
+}
@@ -3,20 +3,32 @@ package com.example.masstracker;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Looper;
+import android.util.Log;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.nio.channels.FileChannel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * DatabaseHelper handles the creation and management of the SQLite database.
+ * App code takes the shared instance from DatabaseManager rather than
+ * constructing its own.
  */
 public class DatabaseHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = "DatabaseHelper";
+
     // Database name and version
-    private static final String DATABASE_NAME = "massTracker.db";
-    private static final int DATABASE_VERSION = 2; // Incremented version for upgrades
+    static final String DATABASE_NAME = "massTracker.db";
+    private static final int DATABASE_VERSION = 6; // Incremented version for upgrades
 
     // User table and columns
     public static final String TABLE_USERS = "users";
@@ -25,36 +37,119 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String COLUMN_PASSWORD = "password";
     public static final String COLUMN_GOAL = "goal";
 
-    // Mass table and columns
+    // Mass table and columns: one log per user per day
     public static final String TABLE_MASS = "mass";
-    public static final String COLUMN_DATE = "date";
-    public static final String COLUMN_MASS = "mass";
+    public static final String COLUMN_DAY = "day"; // Days since 1970-01-01
+    public static final String COLUMN_MASS_GRAMS = "mass_g"; // See MassGrams
     public static final String COLUMN_USER_ID_FK = "user_id_fk";
 
+    // Rollup table and columns: per-user aggregates of the mass table by day, week and month,
+    // with days and masses stored the same way as in the mass table
+    public static final String TABLE_ROLLUP = "mass_rollup";
+    public static final String COLUMN_BUCKET = "bucket";
+    public static final String COLUMN_BUCKET_START = "bucket_start";
+    public static final String COLUMN_COUNT = "count";
+    public static final String COLUMN_MIN_MASS = "min_mass_g";
+    public static final String COLUMN_MAX_MASS = "max_mass_g";
+    public static final String COLUMN_SUM_MASS = "sum_mass_g";
+    public static final String COLUMN_LAST_DAY = "last_day";
+    public static final String COLUMN_LAST_MASS = "last_mass_g";
+
+    // The id of the incremental backup chain the change log feeds; see IncrementalBackup
+    public static final String TABLE_BACKUP_CHAIN = "backup_chain";
+    public static final String COLUMN_CHAIN_ID = "chain_id";
+
+    // Rows an upgrade could not carry over, kept as they were; see RebuildTablesMigration
+    // and CompactMassMigration
+    public static final String TABLE_USERS_QUARANTINE = "users_quarantine";
+    public static final String TABLE_MASS_QUARANTINE = "mass_quarantine";
+
+    // Change log table and columns: rows of the users and mass tables written since the last backup
+    public static final String TABLE_CHANGE_LOG = "change_log";
+    public static final String COLUMN_SEQ = "seq";
+    public static final String COLUMN_TABLE = "tbl";
+    public static final String COLUMN_ROW_ID = "row_id";
+    public static final String COLUMN_ROW_DAY = "row_day";
+
     // SQL statements for creating tables with constraints
-    private static final String TABLE_CREATE_USERS =
+    static final String TABLE_CREATE_USERS =
             "CREATE TABLE " + TABLE_USERS + " (" +
                     COLUMN_USER_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
                     COLUMN_USERNAME + " TEXT NOT NULL UNIQUE, " + // Ensures unique usernames
                     COLUMN_PASSWORD + " TEXT NOT NULL, " + // Ensures password is provided
                     COLUMN_GOAL + " REAL DEFAULT 0.0);"; // Default goal value set to 0.0
 
-    private static final String TABLE_CREATE_MASS =
+    // Integer days and masses keep each row to a few bytes, and without a rowid
+    // the table itself is the B-tree on (user_id_fk, day): a user's logs are
+    // stored together in date order, so date reads need no separate index
+    static final String TABLE_CREATE_MASS =
             "CREATE TABLE " + TABLE_MASS + " (" +
-                    COLUMN_DATE + " TEXT NOT NULL, " + // Ensures a date is provided
-                    COLUMN_MASS + " REAL NOT NULL, " + // Ensures mass value is provided
-                    COLUMN_USER_ID_FK + " INTEGER NOT NULL, " + // Ensures foreign key exists
-                    "FOREIGN KEY(" + COLUMN_USER_ID_FK + ") REFERENCES " + TABLE_USERS + "(" + COLUMN_USER_ID + ") ON DELETE CASCADE);";
+                    COLUMN_USER_ID_FK + " INTEGER NOT NULL, " +
+                    COLUMN_DAY + " INTEGER NOT NULL, " +
+                    COLUMN_MASS_GRAMS + " INTEGER NOT NULL, " +
+                    "PRIMARY KEY(" + COLUMN_USER_ID_FK + ", " + COLUMN_DAY + "), " +
+                    "FOREIGN KEY(" + COLUMN_USER_ID_FK + ") REFERENCES " + TABLE_USERS + "(" + COLUMN_USER_ID + ") ON DELETE CASCADE)" +
+                    " WITHOUT ROWID;";
+
+    // Old mass rows in their version 1 to 5 layout, so nothing is converted on the way in
+    static final String TABLE_CREATE_MASS_QUARANTINE =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_MASS_QUARANTINE + " (" +
+                    COLUMN_USER_ID_FK + " INTEGER, " +
+                    RebuildTablesMigration.COLUMN_DATE + " TEXT, " +
+                    RebuildTablesMigration.COLUMN_MASS + " REAL);";
+
+    // Covering index for mass order: entries of a WITHOUT ROWID table end with
+    // the primary key, so this holds (user_id_fk, mass_g, day)
+    static final String CREATE_INDEX_USER_MASS =
+            "CREATE INDEX IF NOT EXISTS idx_user_mass_g ON " + TABLE_MASS + "(" +
+                    COLUMN_USER_ID_FK + ", " + COLUMN_MASS_GRAMS + ");";
+
+    private static final String TABLE_CREATE_ROLLUP =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_ROLLUP + " (" +
+                    COLUMN_USER_ID_FK + " INTEGER NOT NULL, " +
+                    COLUMN_BUCKET + " TEXT NOT NULL, " + // D, W or M
+                    COLUMN_BUCKET_START + " INTEGER NOT NULL, " + // First day of the bucket
+                    COLUMN_COUNT + " INTEGER NOT NULL, " +
+                    COLUMN_MIN_MASS + " INTEGER NOT NULL, " +
+                    COLUMN_MAX_MASS + " INTEGER NOT NULL, " +
+                    COLUMN_SUM_MASS + " INTEGER NOT NULL, " +
+                    COLUMN_LAST_DAY + " INTEGER NOT NULL, " +
+                    COLUMN_LAST_MASS + " INTEGER NOT NULL, " +
+                    "PRIMARY KEY(" + COLUMN_USER_ID_FK + ", " + COLUMN_BUCKET + ", " + COLUMN_BUCKET_START + ")) WITHOUT ROWID;";
 
-    // Indexes for improving query performance
-    private static final String CREATE_INDEX_DATE =
-            "CREATE INDEX idx_date ON " + TABLE_MASS + "(" + COLUMN_DATE + ");";
+    private static final String TABLE_CREATE_CHANGE_LOG =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_CHANGE_LOG + " (" +
+                    COLUMN_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT, " + // Never reused, so backups can resume from a seq
+                    COLUMN_TABLE + " TEXT NOT NULL, " +
+                    COLUMN_ROW_ID + " INTEGER NOT NULL, " + // The user ID of a mass row
+                    COLUMN_ROW_DAY + " INTEGER);"; // The day of a mass row; null for users
 
-    private static final String CREATE_INDEX_USER =
-            "CREATE INDEX idx_user ON " + TABLE_MASS + "(" + COLUMN_USER_ID_FK + ");";
+    // Rollup buckets: code, SQL for the first day of the bucket holding a day, and for the day after it ends.
+    // Epoch day 0 was a Thursday, and 2440587.5 is its Julian day number.
+    private static final String[][] ROLLUP_BUCKETS = {
+            {"D", "(%s)", "(%s + 1)"},
+            {"W", "(%s - ((%s + 3) % 7 + 7) % 7)", "(%s - ((%s + 3) % 7 + 7) % 7 + 7)"}, // Weeks start on Monday
+            {"M", "CAST(julianday(%s + 2440587.5, 'start of month') - 2440587.5 AS INTEGER)",
+                    "CAST(julianday(%s + 2440587.5, 'start of month', '+1 month') - 2440587.5 AS INTEGER)"},
+    };
 
-    private static final String CREATE_INDEX_MASS =
-            "CREATE INDEX idx_mass ON " + TABLE_MASS + "(" + COLUMN_MASS + ");";
+    // Every table observers can read, for changes that replace the whole database
+    static final String[] ALL_TABLES = {TABLE_USERS, TABLE_MASS, TABLE_ROLLUP, TABLE_CHANGE_LOG};
+
+    // Compiled statements kept by each pooled connection; covers every distinct query MassRepository issues
+    private static final int STATEMENT_CACHE_SIZE = 32;
+
+    private static final MigrationEngine MIGRATIONS = MigrationEngine.create();
+
+    // When set, opening the database on the main thread throws instead of blocking the UI
+    private static volatile boolean mainThreadChecksEnabled;
+
+    // Database work holds the read side; swapping in a restored file takes the write side
+    private static final ReentrantReadWriteLock SWAP_LOCK = new ReentrantReadWriteLock();
+
+    // Every helper with connections to the file, so a swap can close them all
+    private static final Set<DatabaseHelper> HELPERS =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<DatabaseHelper, Boolean>()));
 
     /**
      * Constructor for DatabaseHelper.
@@ -63,6 +158,117 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     public DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Readers and backups see a stable snapshot while writes go to the WAL. In WAL mode
+        // SQLiteDatabase also keeps a pool of connections and runs read-only statements outside
+        // a transaction on the secondary ones, so queries run beside the writer and each other
+        setWriteAheadLoggingEnabled(true);
+        HELPERS.add(this);
+    }
+
+    /**
+     * Configures the connections before the schema is created or upgraded.
+     *
+     * @param db The database instance.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // In WAL mode NORMAL only syncs at checkpoints; a power loss can drop the
+        // last commits but cannot corrupt the file
+        db.execSQL("PRAGMA synchronous=NORMAL");
+        db.setMaxSqlCacheSize(STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * Returns the gate that database work holds so the file cannot be swapped
+     * underneath it. MassQueryExecutor holds it around every task.
+     *
+     * @return The shared side of the swap lock.
+     */
+    static Lock swapGate() {
+        return SWAP_LOCK.readLock();
+    }
+
+    /**
+     * Returns the exclusive side of the swap lock. Holding it means no
+     * database work is running, so connections can be closed or replaced.
+     *
+     * @return The exclusive side of the swap lock.
+     * @throws IllegalStateException If the caller holds the swap gate, which would deadlock.
+     */
+    static Lock exclusiveGate() {
+        if (SWAP_LOCK.getReadHoldCount() > 0) {
+            throw new IllegalStateException("Cannot wait for database work from a task holding the swap gate");
+        }
+        return SWAP_LOCK.writeLock();
+    }
+
+    /**
+     * Replaces the database file with a verified one. Waits for running
+     * database work to finish, closes every helper's connections, renames the
+     * file into place and reopens this helper, so new work pauses only for
+     * the rename and reopen.
+     *
+     * @param replacement  The verified file, in the same directory as the database.
+     * @param databaseFile The live database file.
+     * @throws IOException If the rename fails; the old database is left in place.
+     */
+    void swapIn(File replacement, File databaseFile) throws IOException {
+        Lock exclusive = exclusiveGate();
+        exclusive.lock();
+        try {
+            List<DatabaseHelper> helpers;
+            synchronized (HELPERS) {
+                helpers = new ArrayList<>(HELPERS);
+            }
+            for (DatabaseHelper helper : helpers) {
+                helper.close();
+            }
+            // A leftover WAL or journal belongs to the old file and must not be applied to the new one
+            for (String suffix : new String[]{"-wal", "-shm", "-journal"}) {
+                new File(databaseFile.getPath() + suffix).delete();
+            }
+            if (!replacement.renameTo(databaseFile)) {
+                throw new IOException("Could not rename " + replacement.getName() + " into place");
+            }
+            MassSeriesCache.getInstance().clear();
+            // Reopen now, running any upgrade, rather than on the next query. The new file's
+            // change log does not follow on from any backup chain, so it must start a new one
+            getWritableDatabase().execSQL("DROP TABLE IF EXISTS " + TABLE_BACKUP_CHAIN);
+        } finally {
+            exclusive.unlock();
+        }
+        InvalidationTracker.getInstance().notifyChanged(ALL_TABLES);
+    }
+
+    /**
+     * Enables or disables the main thread check. Tests enable it so any query
+     * or write that is not routed through MassQueryExecutor fails loudly.
+     *
+     * @param enabled True to throw when the database is used on the main thread.
+     */
+    public static void setMainThreadChecksEnabled(boolean enabled) {
+        mainThreadChecksEnabled = enabled;
+    }
+
+    /**
+     * Throws if main thread checks are enabled and this is the main thread.
+     */
+    static void checkNotMainThread() {
+        if (mainThreadChecksEnabled && Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("Database accessed on the main thread");
+        }
+    }
+
+    @Override
+    public SQLiteDatabase getReadableDatabase() {
+        checkNotMainThread();
+        return super.getReadableDatabase();
+    }
+
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        checkNotMainThread();
+        return super.getWritableDatabase();
     }
 
     /**
@@ -74,13 +280,137 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(TABLE_CREATE_USERS);
         db.execSQL(TABLE_CREATE_MASS);
-        db.execSQL(CREATE_INDEX_DATE);
-        db.execSQL(CREATE_INDEX_USER);
-        db.execSQL(CREATE_INDEX_MASS);
+        db.execSQL(CREATE_INDEX_USER_MASS);
+        createRollupSchema(db);
+        createChangeLog(db);
+        MigrationEngine.createTable(db);
     }
 
     /**
-     * Called when the database needs to be upgraded.
+     * Creates the change log and the triggers that record every row written
+     * to the users and mass tables, so an incremental backup only reads the
+     * rows changed since the previous one.
+     *
+     * @param db The database instance.
+     */
+    static void createChangeLog(SQLiteDatabase db) {
+        db.execSQL(TABLE_CREATE_CHANGE_LOG);
+        // Table, and the columns logged as its row_id and row_day
+        String[][] tables = {{TABLE_USERS, COLUMN_USER_ID, null}, {TABLE_MASS, COLUMN_USER_ID_FK, COLUMN_DAY}};
+        for (String[] table : tables) {
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS " + table[0] + "_log_insert AFTER INSERT ON " + table[0] +
+                    " BEGIN " + changeLogInsert(table, "NEW") + " END;");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS " + table[0] + "_log_delete AFTER DELETE ON " + table[0] +
+                    " BEGIN " + changeLogInsert(table, "OLD") + " END;");
+            // An update can change the row's key, so both the old and new row are logged
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS " + table[0] + "_log_update AFTER UPDATE ON " + table[0] +
+                    " BEGIN " + changeLogInsert(table, "OLD") + " " + changeLogInsert(table, "NEW") + " END;");
+        }
+    }
+
+    private static String changeLogInsert(String[] table, String row) {
+        return "INSERT INTO " + TABLE_CHANGE_LOG + " (" + COLUMN_TABLE + ", " + COLUMN_ROW_ID + ", " + COLUMN_ROW_DAY +
+                ") VALUES ('" + table[0] + "', " + row + "." + table[1] + ", " +
+                (table[2] == null ? "NULL" : row + "." + table[2]) + ");";
+    }
+
+    /**
+     * Returns the SQL expression for the first day of a rollup bucket.
+     *
+     * @param bucket  The bucket size.
+     * @param dayExpr The SQL expression for an epoch day within the bucket, for
+     *                example "?1". It may appear more than once, so use a numbered parameter.
+     * @return The SQL expression.
+     */
+    static String rollupStartExpression(MassRollup.Bucket bucket, String dayExpr) {
+        return ROLLUP_BUCKETS[bucket.ordinal()][1].replace("%s", dayExpr);
+    }
+
+    /**
+     * Creates the rollup table and the triggers that keep it up to date.
+     *
+     * Every insert, update and delete on the mass table recomputes the day,
+     * week and month buckets it touches from the mass table's primary key on
+     * (user_id_fk, day). That reads at most a month of one user's rows,
+     * and unlike a running total it stays correct when the minimum, maximum
+     * or latest log is deleted.
+     *
+     * @param db The database instance.
+     */
+    static void createRollupSchema(SQLiteDatabase db) {
+        db.execSQL(TABLE_CREATE_ROLLUP);
+        db.execSQL(rollupTrigger("mass_rollup_insert", "AFTER INSERT", "NEW"));
+        db.execSQL(rollupTrigger("mass_rollup_delete", "AFTER DELETE", "OLD"));
+        db.execSQL(rollupTrigger("mass_rollup_update_old", "AFTER UPDATE", "OLD"));
+        db.execSQL(rollupTrigger("mass_rollup_update_new", "AFTER UPDATE", "NEW"));
+    }
+
+    /**
+     * Rebuilds one user's rollups from their mass logs.
+     *
+     * @param db     The database instance.
+     * @param userId The ID of the user.
+     */
+    static void backfillRollups(SQLiteDatabase db, long userId) {
+        Object[] user = {userId};
+        db.execSQL("DELETE FROM " + TABLE_ROLLUP + " WHERE " + COLUMN_USER_ID_FK + " = ?", user);
+        for (String[] bucket : ROLLUP_BUCKETS) {
+            String start = bucket[1].replace("%s", COLUMN_DAY);
+            db.execSQL("INSERT INTO " + TABLE_ROLLUP + " SELECT " +
+                    COLUMN_USER_ID_FK + ", '" + bucket[0] + "', " + start + " AS bucket_day, COUNT(*), " +
+                    "MIN(" + COLUMN_MASS_GRAMS + "), MAX(" + COLUMN_MASS_GRAMS + "), SUM(" + COLUMN_MASS_GRAMS + "), " +
+                    "MAX(" + COLUMN_DAY + "), 0" +
+                    " FROM " + TABLE_MASS + " WHERE " + COLUMN_USER_ID_FK + " = ?" +
+                    " GROUP BY bucket_day", user);
+        }
+        // One log per day, so the last day identifies the last log
+        db.execSQL("UPDATE " + TABLE_ROLLUP + " SET " + COLUMN_LAST_MASS + " = (SELECT " + COLUMN_MASS_GRAMS +
+                " FROM " + TABLE_MASS + " WHERE " + TABLE_MASS + "." + COLUMN_USER_ID_FK + " = " + TABLE_ROLLUP + "." + COLUMN_USER_ID_FK +
+                " AND " + TABLE_MASS + "." + COLUMN_DAY + " = " + TABLE_ROLLUP + "." + COLUMN_LAST_DAY + ")" +
+                " WHERE " + COLUMN_USER_ID_FK + " = ?", user);
+    }
+
+    /**
+     * Builds a trigger that recomputes every rollup bucket containing the NEW
+     * or OLD row of a write.
+     *
+     * @param name  The trigger name.
+     * @param event The trigger event, for example "AFTER INSERT".
+     * @param row   NEW or OLD.
+     * @return The CREATE TRIGGER statement.
+     */
+    private static String rollupTrigger(String name, String event, String row) {
+        String user = row + "." + COLUMN_USER_ID_FK;
+        String day = row + "." + COLUMN_DAY;
+        StringBuilder sql = new StringBuilder("CREATE TRIGGER IF NOT EXISTS " + name + " " + event +
+                " ON " + TABLE_MASS + " BEGIN ");
+        for (String[] bucket : ROLLUP_BUCKETS) {
+            String start = bucket[1].replace("%s", day);
+            String end = bucket[2].replace("%s", day);
+            String inBucket = " WHERE " + COLUMN_USER_ID_FK + " = " + user +
+                    " AND " + COLUMN_DAY + " >= " + start + " AND " + COLUMN_DAY + " < " + end;
+            sql.append("DELETE FROM ").append(TABLE_ROLLUP)
+                    .append(" WHERE ").append(COLUMN_USER_ID_FK).append(" = ").append(user)
+                    .append(" AND ").append(COLUMN_BUCKET).append(" = '").append(bucket[0]).append("'")
+                    .append(" AND ").append(COLUMN_BUCKET_START).append(" = ").append(start).append("; ");
+            sql.append("INSERT INTO ").append(TABLE_ROLLUP).append(" SELECT ")
+                    .append(user).append(", '").append(bucket[0]).append("', ").append(start).append(", COUNT(*), ")
+                    .append("MIN(").append(COLUMN_MASS_GRAMS).append("), MAX(").append(COLUMN_MASS_GRAMS).append("), ")
+                    .append("SUM(").append(COLUMN_MASS_GRAMS).append("), MAX(").append(COLUMN_DAY).append("), ")
+                    .append("(SELECT ").append(COLUMN_MASS_GRAMS).append(" FROM ").append(TABLE_MASS).append(inBucket)
+                    .append(" ORDER BY ").append(COLUMN_DAY).append(" DESC LIMIT 1)")
+                    .append(" FROM ").append(TABLE_MASS).append(inBucket)
+                    // One group for the user, or none once the bucket is empty. A bare
+                    // HAVING would say the same, but SQLite before 3.39 rejects it
+                    .append(" GROUP BY ").append(COLUMN_USER_ID_FK).append("; ");
+        }
+        return sql.append("END;").toString();
+    }
+
+    /**
+     * Called when the database needs to be upgraded. Nothing is dropped: the
+     * steps between the two versions are recorded as pending and run in
+     * batches from onOpen, so an interrupted upgrade resumes where it stopped.
      *
      * @param db         The database instance.
      * @param oldVersion The current version of the database.
@@ -88,9 +418,20 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_USERS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MASS);
-        onCreate(db);
+        MIGRATIONS.schedule(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Called when the database has been opened. Runs any pending migration
+     * steps before the database is handed out.
+     *
+     * @param db The database instance.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        if (!db.isReadOnly()) {
+            MIGRATIONS.runPending(db);
+        }
     }
 
     /**
@@ -100,50 +441,104 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         SQLiteDatabase db = this.getWritableDatabase();
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_USERS);
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_MASS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ROLLUP);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_CHANGE_LOG);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BACKUP_CHAIN);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_USERS_QUARANTINE);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MASS_QUARANTINE);
+        db.execSQL("DROP TABLE IF EXISTS " + MigrationEngine.TABLE_MIGRATIONS);
         onCreate(db);
+        MassSeriesCache.getInstance().clear();
+        InvalidationTracker.getInstance().notifyChanged(ALL_TABLES);
     }
 
     /**
-     * Exports the database to a specified backup location.
+     * Exports the database to a specified backup location. The copy is a
+     * consistent snapshot even while the database is being written to. This
+     * blocks until the backup is verified, so it must not be called on the UI
+     * thread; use backupDatabase to run it in the background.
      *
      * @param backupPath The file path where the database should be backed up.
      * @return True if the backup was successful, false otherwise.
      */
     public boolean exportDatabase(String backupPath, Context context) {
+        File dbFile = context.getDatabasePath(DATABASE_NAME); // Locate the database file
+        DatabaseBackup backup = new DatabaseBackup(this, dbFile, new File(backupPath),
+                DatabaseBackup.DEFAULT_CHUNK_SIZE, 0);
+        return backup.run(null).isSuccessful();
+    }
+
+    /**
+     * Backs up the database on a background thread without stopping writers.
+     * The file is copied in chunks with a short pause between them, and the
+     * copy is integrity-checked before it replaces the backup file.
+     *
+     * @param backupPath The file path where the database should be backed up.
+     * @param context    The context used to locate the database.
+     * @param listener   Receives progress after each chunk on the backup thread, or null.
+     * @return A future for the backup's result.
+     */
+    public Future<DatabaseBackup.Result> backupDatabase(String backupPath, Context context,
+                                                        DatabaseBackup.ProgressListener listener) {
+        File dbFile = context.getDatabasePath(DATABASE_NAME);
+        DatabaseBackup backup = new DatabaseBackup(this, dbFile, new File(backupPath),
+                DatabaseBackup.DEFAULT_CHUNK_SIZE, DatabaseBackup.DEFAULT_PAUSE_MILLIS);
+        return MassQueryExecutor.getInstance().submit(() -> backup.run(listener));
+    }
+
+    /**
+     * Adds an incremental backup to a backup directory on a background thread:
+     * a delta of the rows changed since the previous backup, or a full base
+     * snapshot when the directory has none yet or newBase is set.
+     *
+     * @param backupDir The directory holding the backup chain.
+     * @param context   The context used to locate the database.
+     * @param newBase   True to start a new chain with a full snapshot.
+     * @param listener  Receives progress while a base snapshot is copied, or null.
+     * @return A future for the backup's result.
+     */
+    public Future<DatabaseBackup.Result> backupIncremental(String backupDir, Context context, boolean newBase,
+                                                           DatabaseBackup.ProgressListener listener) {
+        IncrementalBackup backup = new IncrementalBackup(this, context.getDatabasePath(DATABASE_NAME),
+                new File(backupDir), IncrementalBackup.DEFAULT_ROWS_PER_CHUNK);
+        return MassQueryExecutor.getInstance().submit(() -> backup.backup(newBase, listener));
+    }
+
+    /**
+     * Restores the database from an incremental backup directory by replaying
+     * its deltas onto its base snapshot. The rebuilt file is swapped in like
+     * any other backup, with the same threading rules as restoreDatabase.
+     *
+     * @param backupDir The directory holding the backup chain.
+     * @param context   The context used to locate the database and a scratch file for the rebuild.
+     * @return True if the restore was successful, false otherwise.
+     */
+    public boolean restoreIncremental(String backupDir, Context context) {
+        File rebuilt = new File(context.getCacheDir(), "restore-" + DATABASE_NAME);
         try {
-            File dbFile = new File(context.getDatabasePath(DATABASE_NAME).getPath()); // Locate the database file
-            File backupFile = new File(backupPath); // Define the backup file location
-            FileChannel src = new FileInputStream(dbFile).getChannel();
-            FileChannel dst = new FileOutputStream(backupFile).getChannel();
-            dst.transferFrom(src, 0, src.size()); // Copy database content to backup file
-            src.close();
-            dst.close();
-            return true;
+            new IncrementalBackup(this, context.getDatabasePath(DATABASE_NAME), new File(backupDir),
+                    IncrementalBackup.DEFAULT_ROWS_PER_CHUNK).restore(rebuilt);
+            return restoreDatabase(rebuilt.getPath(), context);
         } catch (Exception e) {
-            e.printStackTrace(); // Log any exceptions
+            Log.e(TAG, "Incremental restore failed", e);
             return false;
+        } finally {
+            rebuilt.delete();
         }
     }
 
     /**
-     * Restores the database from a specified backup file.
+     * Restores the database from a specified backup file. The backup is
+     * copied beside the database and verified first, then swapped in while
+     * the app keeps running; if anything fails the live database is untouched.
+     * This blocks, so it must not be called on the UI thread or from a
+     * MassQueryExecutor.submit task; use MassQueryExecutor.submitMaintenance.
      *
      * @param backupPath The file path of the backup database.
      * @return True if the restore was successful, false otherwise.
      */
     public boolean restoreDatabase(String backupPath, Context context) {
-        try {
-            File dbFile = new File(context.getDatabasePath(DATABASE_NAME).getPath()); // Locate the database file
-            File backupFile = new File(backupPath); // Locate the backup file
-            FileChannel src = new FileInputStream(backupFile).getChannel();
-            FileChannel dst = new FileOutputStream(dbFile).getChannel();
-            dst.transferFrom(src, 0, src.size()); // Overwrite current database with backup file
-            src.close();
-            dst.close();
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace(); // Log any exceptions
-            return false;
-        }
+        File dbFile = context.getDatabasePath(DATABASE_NAME); // Locate the database file
+        return new DatabaseRestore(this, new File(backupPath), dbFile, DATABASE_VERSION).run().isSuccessful();
     }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.example.masstracker;
+
+import android.content.Context;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * DatabaseManager hands out the one DatabaseHelper the app uses, so every
+ * repository shares a single write connection, a single pool of read
+ * connections and a single schema check. All writes queue on the one write connection
+ * instead of competing for SQLite's file lock, so they never fail with
+ * SQLITE_BUSY, and WAL readers never block them.
+ *
+ * Each acquire must be matched by a release. When the last reference is
+ * released the helper's connections are closed once running database work
+ * has finished. The helper itself is kept, and the next acquire reopens its
+ * connections on first use.
+ */
+public final class DatabaseManager {
+
+    private static DatabaseHelper helper;
+    private static int references;
+
+    private DatabaseManager() {
+    }
+
+    /**
+     * Takes a reference to the shared helper, creating it on first use. This
+     * does not open the database, so it is safe on the main thread.
+     *
+     * @param context Any context; the application context is kept.
+     * @return The shared helper.
+     */
+    public static synchronized DatabaseHelper acquire(Context context) {
+        if (helper == null) {
+            helper = new DatabaseHelper(context.getApplicationContext());
+        }
+        references++;
+        return helper;
+    }
+
+    /**
+     * Returns a reference taken with acquire. Releasing the last reference
+     * waits for running database work and then closes the connections, so it
+     * must not be called from a task on MassQueryExecutor.
+     *
+     * @param released The helper returned by acquire.
+     */
+    public static void release(DatabaseHelper released) {
+        synchronized (DatabaseManager.class) {
+            if (released != helper || references == 0) {
+                throw new IllegalStateException("Released a helper that was not acquired");
+            }
+            if (--references > 0) {
+                return;
+            }
+        }
+        // Wait for running work outside the monitor, so acquire never waits on a query
+        Lock exclusive = DatabaseHelper.exclusiveGate();
+        exclusive.lock();
+        try {
+            synchronized (DatabaseManager.class) {
+                if (references == 0) { // Not handed out again while we waited
+                    helper.close();
+                }
+            }
+        } finally {
+            exclusive.unlock();
+        }
+    }
+
+    /**
+     * Closes and forgets the shared helper, and the series cached from its
+     * database, so the next acquire starts over for a new context. Tests
+     * call this between cases, because each case gets a fresh application
+     * with its own database directory.
+     */
+    static synchronized void reset() {
+        if (helper != null) {
+            helper.close();
+            helper = null;
+        }
+        references = 0;
+        MassSeriesCache.getInstance().clear();
+    }
+
+    /**
+     * @return The number of references currently held.
+     */
+    public static synchronized int getReferenceCount() {
+        return references;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.masstracker;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * DatabaseRestore replaces the live database with a backup without ever
+ * exposing a half-written file. The backup is streamed into a temporary file
+ * next to the database and verified: the copy must match what was read, be a
+ * SQLite database that passes PRAGMA integrity_check, and have a schema
+ * version this app can open. Only then does DatabaseHelper swap it in, which
+ * pauses database work only for the rename and reopen.
+ */
+public class DatabaseRestore {
+
+    private static final String TAG = "DatabaseRestore";
+    private static final int CHUNK_SIZE = DatabaseBackup.DEFAULT_CHUNK_SIZE;
+    private static final byte[] SQLITE_MAGIC = "SQLite format 3\0".getBytes(StandardCharsets.US_ASCII);
+
+    private final DatabaseHelper dbHelper;
+    private final File backup;
+    private final File databaseFile;
+    private final int maxVersion;
+
+    /**
+     * Constructor for DatabaseRestore.
+     *
+     * @param dbHelper     The helper whose connections are reopened after the swap.
+     * @param backup       The backup file to restore.
+     * @param databaseFile The live database file.
+     * @param maxVersion   The newest schema version the app can open.
+     */
+    public DatabaseRestore(DatabaseHelper dbHelper, File backup, File databaseFile, int maxVersion) {
+        this.dbHelper = dbHelper;
+        this.backup = backup;
+        this.databaseFile = databaseFile;
+        this.maxVersion = maxVersion;
+    }
+
+    /**
+     * Runs the restore. This blocks while the backup is copied and verified,
+     * so it must not be called on the UI thread, nor from a task that holds
+     * the swap gate, such as one submitted to MassQueryExecutor.submit.
+     *
+     * @return A summary of the restore.
+     */
+    public DatabaseBackup.Result run() {
+        File temp = new File(databaseFile.getPath() + ".restore");
+        long start = System.currentTimeMillis();
+        long copied = 0;
+        try {
+            copied = copy(temp);
+            String problem = verify(temp);
+            if (problem != null) {
+                return new DatabaseBackup.Result(false, copied, System.currentTimeMillis() - start, problem);
+            }
+            dbHelper.swapIn(temp, databaseFile);
+            return new DatabaseBackup.Result(true, copied, System.currentTimeMillis() - start, "ok");
+        } catch (IOException | SQLiteException e) {
+            Log.e(TAG, "Restore failed", e);
+            return new DatabaseBackup.Result(false, copied, System.currentTimeMillis() - start,
+                    String.valueOf(e.getMessage()));
+        } finally {
+            temp.delete(); // Already renamed away if the swap succeeded
+        }
+    }
+
+    /**
+     * Streams the backup into temp, then reads temp back and compares
+     * checksums, so a short or corrupted write is caught before the swap.
+     *
+     * @return The number of bytes copied.
+     */
+    private long copy(File temp) throws IOException {
+        CRC32 written = new CRC32();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long total = 0;
+        FileInputStream in = new FileInputStream(backup);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                written.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+                total += read;
+            }
+            out.getFD().sync(); // On disk before it can replace the database
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        if (temp.length() != total || checksum(temp, buffer) != written.getValue()) {
+            throw new IOException("Copy of " + backup.getName() + " does not match the backup");
+        }
+        return total;
+    }
+
+    /**
+     * @return Null if the file can replace the database, otherwise why not.
+     */
+    private String verify(File file) throws IOException {
+        byte[] header = new byte[SQLITE_MAGIC.length];
+        InputStream in = new FileInputStream(file);
+        try {
+            if (in.read(header) != header.length || !Arrays.equals(header, SQLITE_MAGIC)) {
+                return "Not a SQLite database";
+            }
+        } finally {
+            in.close();
+        }
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            // Older versions are upgraded when the helper reopens; newer ones cannot be opened
+            int version = db.getVersion();
+            if (version < 1 || version > maxVersion) {
+                return "Unsupported schema version " + version;
+            }
+            String check = CursorRows.firstString(db.rawQuery("PRAGMA integrity_check", null), "no result");
+            return "ok".equals(check) ? null : "Integrity check failed: " + check;
+        } finally {
+            db.close();
+        }
+    }
+
+    private static long checksum(File file, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+}
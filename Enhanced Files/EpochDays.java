@@ -0,0 +1,154 @@
+package com.example.masstracker;
+
+/**
+ * EpochDays converts between "yyyy-MM-dd" date strings and the number of days
+ * since 1970-01-01, without creating intermediate date objects.
+ */
+public final class EpochDays {
+
+    // Returned by tryParse when the input is not a valid date
+    public static final int INVALID = Integer.MIN_VALUE;
+
+    private EpochDays() {
+    }
+
+    /**
+     * Parses a "yyyy-MM-dd" date into an epoch day.
+     *
+     * @param date The date string.
+     * @return The number of days since 1970-01-01.
+     * @throws IllegalArgumentException If the string is not a valid date.
+     */
+    public static int parse(String date) {
+        int epochDay = tryParse(date);
+        if (epochDay == INVALID) {
+            throw new IllegalArgumentException("Invalid date: " + date);
+        }
+        return epochDay;
+    }
+
+    /**
+     * Parses a "yyyy-MM-dd" date into an epoch day.
+     *
+     * @param date The date string.
+     * @return The number of days since 1970-01-01, or INVALID if the string is not a valid date.
+     */
+    public static int tryParse(String date) {
+        if (date == null || date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+            return INVALID;
+        }
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 7);
+        int day = digits(date, 8, 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            return INVALID;
+        }
+        return fromCivil(year, month, day);
+    }
+
+    /**
+     * Formats an epoch day as "yyyy-MM-dd".
+     *
+     * @param epochDay The number of days since 1970-01-01.
+     * @return The formatted date.
+     */
+    public static String format(int epochDay) {
+        StringBuilder builder = new StringBuilder(10);
+        appendTo(builder, epochDay);
+        return builder.toString();
+    }
+
+    /**
+     * Appends an epoch day to a builder as "yyyy-MM-dd".
+     *
+     * @param builder  The builder to append to.
+     * @param epochDay The number of days since 1970-01-01.
+     */
+    public static void appendTo(StringBuilder builder, int epochDay) {
+        int ymd = toYearMonthDay(epochDay);
+        for (int divisor = 10000000; divisor > 0; divisor /= 10) {
+            builder.append((char) ('0' + ymd / divisor % 10));
+            if (divisor == 10000 || divisor == 100) {
+                builder.append('-');
+            }
+        }
+    }
+
+    /**
+     * Writes an epoch day into a character buffer as "yyyy-MM-dd" without allocating.
+     *
+     * @param buffer   The buffer to write to; needs 10 characters from offset.
+     * @param offset   The position of the first character.
+     * @param epochDay The number of days since 1970-01-01.
+     * @return The position after the last character written.
+     */
+    public static int writeTo(char[] buffer, int offset, int epochDay) {
+        int ymd = toYearMonthDay(epochDay);
+        for (int divisor = 10000000; divisor > 0; divisor /= 10) {
+            buffer[offset++] = (char) ('0' + ymd / divisor % 10);
+            if (divisor == 10000 || divisor == 100) {
+                buffer[offset++] = '-';
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Converts an epoch day into a calendar date packed as yyyyMMdd.
+     */
+    private static int toYearMonthDay(int epochDay) {
+        // Civil-from-days conversion (proleptic Gregorian calendar, eras of 400 years)
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = z - era * 146097;
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+
+    /**
+     * Converts a calendar date into an epoch day.
+     */
+    private static int fromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Reads a run of decimal digits, returning -1 if any character is not a digit.
+     */
+    private static int digits(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
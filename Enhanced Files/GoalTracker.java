@@ -0,0 +1,234 @@
+package com.example.masstracker;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * GoalTracker decides when a user reaches their goal mass. It keeps the goal,
+ * the latest reading and an "already notified" marker in SharedPreferences,
+ * evaluates each new reading in constant time, and notifies only when the
+ * latest mass crosses from above the goal to at or below it, not once per
+ * qualifying log.
+ *
+ * The latest reading is seeded from the user's newest log when the tracker
+ * is created, and re-read whenever the logs change in other ways, such as a
+ * delete, so it always matches the database.
+ *
+ * All state changes and notifications run in order on a single background
+ * dispatch thread, so callers on the UI thread never wait on disk.
+ */
+public class GoalTracker {
+
+    /**
+     * Receives goal notifications on the dispatch thread.
+     */
+    public interface Listener {
+        void onGoalReached(int userId, double goal, double mass);
+    }
+
+    // Goal value meaning "no goal set", in the preferences, the dashboard's intent and its
+    // snapshot. The users table is not read for goals; it stores 0.0 for a user without one
+    public static final double NO_GOAL = -1;
+
+    private static final String TAG = "GoalTracker";
+    private static final String PREFS_NAME = "goal_tracker";
+    private static final int NO_READING = Integer.MIN_VALUE;
+
+    private static final ExecutorService DISPATCH = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "goal-dispatch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Context context;
+    private final int userId;
+    private final Listener listener;
+    private final Callable<MassPage> newestLog;
+    private final String goalKey;
+    private final String dayKey;
+    private final String massKey;
+    private final String notifiedKey;
+
+    // Only accessed on the dispatch thread
+    private SharedPreferences prefs;
+    private double goal;
+    private int latestDay;
+    private double latestMass;
+    private boolean notified;
+
+    /**
+     * Constructor for GoalTracker. The newest log is read on the dispatch
+     * thread before any other call is handled.
+     *
+     * @param context   The context used to open the preferences.
+     * @param userId    The ID of the user whose goal is tracked.
+     * @param listener  Receives a call each time the goal is reached.
+     * @param newestLog Reads the user's newest log as a page of at most one
+     *                  entry; it is called on the dispatch thread.
+     */
+    public GoalTracker(Context context, int userId, Listener listener, Callable<MassPage> newestLog) {
+        this.context = context.getApplicationContext();
+        this.userId = userId;
+        this.listener = listener;
+        this.newestLog = newestLog;
+        goalKey = "goal_" + userId;
+        dayKey = "latest_day_" + userId;
+        massKey = "latest_mass_" + userId;
+        notifiedKey = "notified_" + userId;
+        DISPATCH.execute(() -> {
+            load();
+            boolean known = latestDay != NO_READING;
+            if (!readNewest()) {
+                return;
+            }
+            if (known) {
+                if (!evaluate()) {
+                    save();
+                }
+                return;
+            }
+            // Nothing was tracked before, so this is a starting point rather than a crossing
+            notified = isReached();
+            save();
+        });
+    }
+
+    /**
+     * Sets the user's goal. A new goal re-arms the notification, and fires it
+     * straight away if the latest reading already meets the goal.
+     *
+     * @param goal The goal mass, or NO_GOAL.
+     */
+    public void setGoal(double goal) {
+        DISPATCH.execute(() -> {
+            load();
+            if (Double.compare(this.goal, goal) == 0) {
+                return;
+            }
+            this.goal = goal;
+            notified = false;
+            if (!evaluate()) {
+                save();
+            }
+        });
+    }
+
+    /**
+     * Records a new reading. Readings older than the latest one are history
+     * and cannot cross the goal, so they are ignored.
+     *
+     * @param epochDay The day of the reading.
+     * @param mass     The mass value.
+     */
+    public void onReading(int epochDay, double mass) {
+        DISPATCH.execute(() -> {
+            load();
+            if (latestDay != NO_READING && epochDay < latestDay) {
+                return;
+            }
+            latestDay = epochDay;
+            latestMass = mass;
+            if (!evaluate()) {
+                save();
+            }
+        });
+    }
+
+    /**
+     * Re-reads the latest reading after the logs changed other than through
+     * onReading, for example after a delete. Removing the latest log can move
+     * it back above the goal, which re-arms the notification.
+     */
+    public void onLogsChanged() {
+        DISPATCH.execute(() -> {
+            load();
+            if (readNewest() && !evaluate()) {
+                save();
+            }
+        });
+    }
+
+    /**
+     * Replaces the latest reading with the newest log in the database.
+     *
+     * @return False if the log could not be read; the reading is unchanged.
+     */
+    private boolean readNewest() {
+        MassPage newest;
+        try {
+            newest = newestLog.call();
+        } catch (Exception e) {
+            Log.w(TAG, "Could not read the newest log", e);
+            return false;
+        }
+        if (newest.size() == 0) {
+            latestDay = NO_READING;
+            latestMass = 0;
+        } else {
+            latestDay = newest.dayAt(0);
+            latestMass = newest.massAt(0);
+        }
+        return true;
+    }
+
+    private boolean isReached() {
+        return goal != NO_GOAL && latestDay != NO_READING && latestMass <= goal;
+    }
+
+    /**
+     * Compares the latest reading with the goal and fires on a crossing. The
+     * marker is saved before notifying, so a crash cannot notify twice.
+     *
+     * @return True if the state was saved.
+     */
+    private boolean evaluate() {
+        boolean reached = isReached();
+        if (reached == notified) {
+            return false;
+        }
+        notified = reached; // Going back above the goal re-arms the notification
+        save();
+        if (reached && listener != null) {
+            listener.onGoalReached(userId, goal, latestMass);
+        }
+        return true;
+    }
+
+    private void load() {
+        if (prefs != null) {
+            return;
+        }
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        goal = Double.longBitsToDouble(prefs.getLong(goalKey, Double.doubleToLongBits(NO_GOAL)));
+        latestDay = prefs.getInt(dayKey, NO_READING);
+        latestMass = Double.longBitsToDouble(prefs.getLong(massKey, 0));
+        notified = prefs.getBoolean(notifiedKey, false);
+    }
+
+    private void save() {
+        // commit() is synchronous, which is fine on the dispatch thread
+        prefs.edit()
+                .putLong(goalKey, Double.doubleToLongBits(goal))
+                .putInt(dayKey, latestDay)
+                .putLong(massKey, Double.doubleToLongBits(latestMass))
+                .putBoolean(notifiedKey, notified)
+                .commit();
+    }
+
+    /**
+     * Waits until every call made so far has been handled. For tests.
+     */
+    static void awaitIdle() throws Exception {
+        DISPATCH.submit(() -> {
+        }).get();
+    }
+}
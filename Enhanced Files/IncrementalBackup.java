@@ -0,0 +1,772 @@
+package com.example.masstracker;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * IncrementalBackup keeps a chain of backups in a directory: one full base
+ * snapshot followed by deltas that hold only the rows written since the
+ * previous backup. Changed rows are found through the change log that
+ * DatabaseHelper's triggers maintain, so a delta costs time and space in
+ * proportion to what changed, not to the size of the database.
+ *
+ * A manifest lists the base and deltas in order with a CRC32 for each chunk
+ * of each file. Restoring copies the base, replays every delta onto it, and
+ * fails if any chunk does not match its checksum.
+ *
+ * The change log is trimmed after each backup, so a database should have a
+ * single backup chain. Each chain has a random id, stored both in its
+ * manifest and in the live database. DatabaseHelper drops the database's
+ * copy when it swaps in or resets the database. A chain whose id does not
+ * match, or whose last sequence number is ahead of the database's, no
+ * longer describes the database, so the next backup starts a new chain.
+ *
+ * Every file is synced before the manifest lists it, and the manifest and
+ * directory are synced before the change log is trimmed, so a power loss
+ * never leaves trimmed changes that no backup holds.
+ */
+public class IncrementalBackup {
+
+    public static final int DEFAULT_ROWS_PER_CHUNK = 1000;
+
+    private static final String TAG = "IncrementalBackup";
+    private static final String MANIFEST = "manifest.txt";
+    private static final String CHAIN_PREFIX = "chain ";
+    private static final int DELTA_MAGIC = 0x4D544442; // "MTDB"
+
+    private static final byte OP_UPSERT = 1;
+    private static final byte OP_DELETE = 2;
+
+    // Tracked tables, keyed by the columns the change log records as row_id and row_day;
+    // the types are S for text, D for real and L for integer
+    private static final Table[] TABLES = {
+            new Table(DatabaseHelper.TABLE_USERS, new String[]{DatabaseHelper.COLUMN_USER_ID},
+                    new String[]{DatabaseHelper.COLUMN_USERNAME, DatabaseHelper.COLUMN_PASSWORD,
+                            DatabaseHelper.COLUMN_GOAL}, "SSD"),
+            new Table(DatabaseHelper.TABLE_MASS, new String[]{DatabaseHelper.COLUMN_USER_ID_FK, DatabaseHelper.COLUMN_DAY},
+                    new String[]{DatabaseHelper.COLUMN_MASS_GRAMS}, "L"),
+    };
+
+    private static final String TABLE_CREATE_BACKUP_CHAIN =
+            "CREATE TABLE IF NOT EXISTS " + DatabaseHelper.TABLE_BACKUP_CHAIN + " (" +
+                    DatabaseHelper.COLUMN_CHAIN_ID + " TEXT NOT NULL);";
+
+    // Only one backup or restore may use a chain at a time
+    private static final Object LOCK = new Object();
+
+    private final DatabaseHelper dbHelper;
+    private final File databaseFile;
+    private final File directory;
+    private final int rowsPerChunk;
+
+    /**
+     * Constructor for IncrementalBackup.
+     *
+     * @param dbHelper     The helper holding the open database.
+     * @param databaseFile The database file.
+     * @param directory    The directory holding the backup chain.
+     * @param rowsPerChunk The number of rows per checksummed chunk of a delta.
+     */
+    public IncrementalBackup(DatabaseHelper dbHelper, File databaseFile, File directory, int rowsPerChunk) {
+        if (rowsPerChunk <= 0) {
+            throw new IllegalArgumentException("rowsPerChunk must be positive: " + rowsPerChunk);
+        }
+        this.dbHelper = dbHelper;
+        this.databaseFile = databaseFile;
+        this.directory = directory;
+        this.rowsPerChunk = rowsPerChunk;
+    }
+
+    /**
+     * Adds a backup to the chain: a delta of the rows changed since the last
+     * backup, or a new base snapshot if there is no chain yet or one is
+     * requested. This blocks, so it must not be called on the UI thread.
+     *
+     * @param newBase  True to start a new chain with a full snapshot.
+     * @param listener Receives progress while a base snapshot is copied, or null.
+     * @return A summary of the backup; the byte count is the size of the new file.
+     */
+    public DatabaseBackup.Result backup(boolean newBase, DatabaseBackup.ProgressListener listener) {
+        synchronized (LOCK) {
+            long start = System.currentTimeMillis();
+            try {
+                Manifest manifest = newBase ? null : Manifest.read(directory);
+                if (manifest == null || !sameChain(manifest) || !sameSchema(manifest)) {
+                    return backupBase(listener); // Deltas cannot span a schema upgrade
+                }
+                DatabaseBackup.Result result = backupDelta(manifest, start);
+                return result != null ? result : backupBase(listener);
+            } catch (IOException | SQLiteException e) {
+                Log.e(TAG, "Incremental backup failed", e);
+                return new DatabaseBackup.Result(false, 0, System.currentTimeMillis() - start,
+                        String.valueOf(e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the database from the chain into a new file. The live
+     * database is not touched.
+     *
+     * @param output The file to write the restored database to.
+     * @throws IOException If the chain is missing, broken or fails a checksum.
+     */
+    public void restore(File output) throws IOException {
+        synchronized (LOCK) {
+            Manifest manifest = Manifest.read(directory);
+            if (manifest == null) {
+                throw new IOException("No backup in " + directory.getPath());
+            }
+            File temp = new File(output.getPath() + ".tmp");
+            try {
+                Entry base = manifest.entries.get(0);
+                copyVerified(new File(directory, base.file), temp, base.checksums);
+
+                SQLiteDatabase db = SQLiteDatabase.openDatabase(temp.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+                try {
+                    long seq = base.toSeq;
+                    for (int i = 1; i < manifest.entries.size(); i++) {
+                        Entry delta = manifest.entries.get(i);
+                        if (delta.fromSeq != seq) {
+                            throw new IOException("Backup chain is broken before " + delta.file);
+                        }
+                        db.beginTransaction();
+                        try {
+                            replay(db, new File(directory, delta.file), delta.checksums);
+                            db.setTransactionSuccessful();
+                        } finally {
+                            db.endTransaction();
+                        }
+                        seq = delta.toSeq;
+                    }
+                    // Start the restored change log where the chain ends, so the next delta follows on
+                    db.execSQL("DELETE FROM " + DatabaseHelper.TABLE_CHANGE_LOG);
+                    db.execSQL("DELETE FROM sqlite_sequence WHERE name = ?", new Object[]{DatabaseHelper.TABLE_CHANGE_LOG});
+                    db.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES (?, ?)",
+                            new Object[]{DatabaseHelper.TABLE_CHANGE_LOG, seq});
+                } finally {
+                    db.close();
+                }
+                if ((output.exists() && !output.delete()) || !temp.renameTo(output)) {
+                    throw new IOException("Could not replace " + output.getPath());
+                }
+            } finally {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Takes a full snapshot, starts a new manifest with it and removes the
+     * files of the previous chain.
+     */
+    private DatabaseBackup.Result backupBase(DatabaseBackup.ProgressListener listener) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory.getPath());
+        }
+        File snapshot = new File(directory, "base.tmp");
+        DatabaseBackup.Result result = new DatabaseBackup(dbHelper, databaseFile, snapshot,
+                DatabaseBackup.DEFAULT_CHUNK_SIZE, DatabaseBackup.DEFAULT_PAUSE_MILLIS).run(listener);
+        if (!result.isSuccessful()) {
+            return result;
+        }
+
+        // The snapshot's own change log sequence says exactly which changes it contains
+        long seq = readSequence(snapshot);
+        File base = new File(directory, "base-" + seq + ".db");
+        if ((base.exists() && !base.delete()) || !snapshot.renameTo(base)) {
+            throw new IOException("Could not create " + base.getPath());
+        }
+        Manifest manifest = new Manifest(UUID.randomUUID().toString());
+        manifest.entries.add(new Entry(base.getName(), 0, seq, checksumFile(base)));
+        manifest.write(directory);
+        // Written after the manifest: if this is lost the ids differ, and the next backup is a base again
+        writeChainId(manifest.chainId);
+        deleteUnlisted(manifest);
+        trimChangeLog(seq);
+        return result;
+    }
+
+    /**
+     * Writes the rows changed since the last backup to a delta file.
+     *
+     * @return The result, or null if the database's sequence is behind the
+     *         chain's, so the chain no longer describes it.
+     */
+    private DatabaseBackup.Result backupDelta(Manifest manifest, long start) throws IOException {
+        long fromSeq = manifest.lastSeq();
+        File temp = new File(directory, "delta.tmp");
+        ChunkWriter writer = new ChunkWriter(temp, rowsPerChunk);
+        long toSeq;
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            // Holds off other writers, but not readers, so the rows and the sequence agree
+            db.beginTransactionNonExclusive();
+            try {
+                toSeq = lastSequence(db);
+                if (toSeq > fromSeq) {
+                    for (int i = 0; i < TABLES.length; i++) {
+                        writeChangedRows(db, i, fromSeq, toSeq, writer);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (toSeq <= fromSeq) {
+            temp.delete();
+            if (toSeq < fromSeq) {
+                Log.w(TAG, "Database is behind its backup chain, starting a new one");
+                return null;
+            }
+            return new DatabaseBackup.Result(true, 0, System.currentTimeMillis() - start, "ok"); // Nothing changed
+        }
+        File delta = new File(directory, "delta-" + toSeq + ".bin");
+        if ((delta.exists() && !delta.delete()) || !temp.renameTo(delta)) {
+            temp.delete();
+            throw new IOException("Could not create " + delta.getPath());
+        }
+        manifest.entries.add(new Entry(delta.getName(), fromSeq, toSeq, writer.getChecksums()));
+        manifest.write(directory);
+        trimChangeLog(toSeq);
+        return new DatabaseBackup.Result(true, delta.length(), System.currentTimeMillis() - start, "ok");
+    }
+
+    /**
+     * Writes the current state of every row of a table logged in (fromSeq, toSeq].
+     */
+    private static void writeChangedRows(SQLiteDatabase db, int tableIndex, long fromSeq, long toSeq,
+                                         ChunkWriter writer) throws IOException {
+        Table table = TABLES[tableIndex];
+        try (Cursor cursor = db.rawQuery(table.selectChangedSql,
+                new String[]{table.name, String.valueOf(fromSeq), String.valueOf(toSeq)})) {
+            int keys = table.keys.length;
+            while (cursor.moveToNext()) {
+                DataOutputStream out = writer.startRow();
+                boolean deleted = cursor.isNull(keys); // The join found no row
+                out.writeByte(deleted ? OP_DELETE : OP_UPSERT);
+                out.writeByte(tableIndex);
+                for (int k = 0; k < keys; k++) {
+                    out.writeLong(cursor.getLong(k));
+                }
+                if (!deleted) {
+                    for (int c = 0; c < table.columns.length; c++) {
+                        int index = keys + 1 + c;
+                        boolean isNull = cursor.isNull(index);
+                        out.writeBoolean(isNull);
+                        if (isNull) {
+                            continue;
+                        }
+                        switch (table.types.charAt(c)) {
+                            case 'S':
+                                out.writeUTF(cursor.getString(index));
+                                break;
+                            case 'D':
+                                out.writeDouble(cursor.getDouble(index));
+                                break;
+                            default:
+                                out.writeLong(cursor.getLong(index));
+                                break;
+                        }
+                    }
+                }
+                writer.endRow();
+            }
+        }
+    }
+
+    /**
+     * Applies one delta file to a database, checking each chunk first.
+     */
+    private static void replay(SQLiteDatabase db, File file, long[] checksums) throws IOException {
+        SQLiteStatement[] upserts = new SQLiteStatement[TABLES.length];
+        SQLiteStatement[] deletes = new SQLiteStatement[TABLES.length];
+        for (int i = 0; i < TABLES.length; i++) {
+            upserts[i] = db.compileStatement(TABLES[i].upsertSql);
+            deletes[i] = db.compileStatement(TABLES[i].deleteSql);
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != DELTA_MAGIC) {
+                throw new IOException(file.getName() + " is not a delta backup");
+            }
+            for (long expected : checksums) {
+                int rows = in.readInt();
+                byte[] chunk = new byte[in.readInt()];
+                in.readFully(chunk);
+                CRC32 crc = new CRC32();
+                crc.update(chunk, 0, chunk.length);
+                if (crc.getValue() != expected) {
+                    throw new IOException("Checksum mismatch in " + file.getName());
+                }
+
+                DataInputStream records = new DataInputStream(new ByteArrayInputStream(chunk));
+                for (int r = 0; r < rows; r++) {
+                    byte op = records.readByte();
+                    int tableIndex = records.readByte();
+                    Table table = TABLES[tableIndex];
+                    SQLiteStatement statement = op == OP_DELETE ? deletes[tableIndex] : upserts[tableIndex];
+                    int keys = table.keys.length;
+                    for (int k = 0; k < keys; k++) {
+                        statement.bindLong(k + 1, records.readLong());
+                    }
+                    if (op == OP_DELETE) {
+                        statement.executeUpdateDelete();
+                        continue;
+                    }
+                    for (int c = 0; c < table.columns.length; c++) {
+                        int index = keys + 1 + c;
+                        if (records.readBoolean()) {
+                            statement.bindNull(index);
+                            continue;
+                        }
+                        switch (table.types.charAt(c)) {
+                            case 'S':
+                                statement.bindString(index, records.readUTF());
+                                break;
+                            case 'D':
+                                statement.bindDouble(index, records.readDouble());
+                                break;
+                            default:
+                                statement.bindLong(index, records.readLong());
+                                break;
+                        }
+                    }
+                    statement.executeInsert();
+                }
+            }
+            if (in.read() != -1) {
+                throw new IOException(file.getName() + " has more chunks than its manifest entry");
+            }
+        } finally {
+            in.close();
+            for (int i = 0; i < TABLES.length; i++) {
+                upserts[i].close();
+                deletes[i].close();
+            }
+        }
+    }
+
+    /**
+     * Removes change log entries that a written backup now covers.
+     */
+    private void trimChangeLog(long seq) {
+        dbHelper.getWritableDatabase().delete(DatabaseHelper.TABLE_CHANGE_LOG,
+                DatabaseHelper.COLUMN_SEQ + " <= ?", new String[]{String.valueOf(seq)});
+    }
+
+    private void deleteUnlisted(Manifest manifest) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.equals(MANIFEST) && !manifest.lists(name)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return True if the chain's base snapshot has the live database's schema version.
+     */
+    private boolean sameSchema(Manifest manifest) {
+        File base = new File(directory, manifest.entries.get(0).file);
+        if (!base.isFile()) {
+            return false;
+        }
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(base.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            return db.getVersion() == dbHelper.getWritableDatabase().getVersion();
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * @return True if the live database belongs to the manifest's chain.
+     */
+    private boolean sameChain(Manifest manifest) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.execSQL(TABLE_CREATE_BACKUP_CHAIN);
+        String chainId = CursorRows.firstString(db.rawQuery("SELECT " + DatabaseHelper.COLUMN_CHAIN_ID +
+                " FROM " + DatabaseHelper.TABLE_BACKUP_CHAIN, null), null);
+        return chainId != null && chainId.equals(manifest.chainId);
+    }
+
+    private void writeChainId(String chainId) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.execSQL(TABLE_CREATE_BACKUP_CHAIN);
+            db.execSQL("DELETE FROM " + DatabaseHelper.TABLE_BACKUP_CHAIN);
+            db.execSQL("INSERT INTO " + DatabaseHelper.TABLE_BACKUP_CHAIN + " (" + DatabaseHelper.COLUMN_CHAIN_ID +
+                    ") VALUES (?)", new Object[]{chainId});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Reads the last change log sequence number handed out. Unlike the
+     * largest logged one it survives trimming, and it only goes back when
+     * the database is replaced.
+     */
+    private static long lastSequence(SQLiteDatabase db) {
+        return CursorRows.firstLong(db.rawQuery("SELECT seq FROM sqlite_sequence WHERE name = ?",
+                new String[]{DatabaseHelper.TABLE_CHANGE_LOG}), 0);
+    }
+
+    /**
+     * Reads the last change log sequence number handed out in a database file.
+     */
+    private static long readSequence(File file) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            return lastSequence(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Syncs a directory, so files just renamed into it survive a power loss.
+     * Not every file system allows this, so a failure is only logged.
+     */
+    private static void syncDirectory(File directory) {
+        try {
+            FileDescriptor fd = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            Log.w(TAG, "Could not sync " + directory.getPath(), e);
+        }
+    }
+
+    private static long[] checksumFile(File file) throws IOException {
+        long[] checksums = new long[0];
+        byte[] buffer = new byte[DatabaseBackup.DEFAULT_CHUNK_SIZE];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = readChunk(in, buffer)) > 0) {
+                CRC32 crc = new CRC32();
+                crc.update(buffer, 0, read);
+                checksums = Arrays.copyOf(checksums, checksums.length + 1);
+                checksums[checksums.length - 1] = crc.getValue();
+            }
+        } finally {
+            in.close();
+        }
+        return checksums;
+    }
+
+    private static void copyVerified(File source, File target, long[] checksums) throws IOException {
+        byte[] buffer = new byte[DatabaseBackup.DEFAULT_CHUNK_SIZE];
+        FileInputStream in = new FileInputStream(source);
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            int chunk = 0;
+            int read;
+            while ((read = readChunk(in, buffer)) > 0) {
+                CRC32 crc = new CRC32();
+                crc.update(buffer, 0, read);
+                if (chunk >= checksums.length || crc.getValue() != checksums[chunk]) {
+                    throw new IOException("Checksum mismatch in " + source.getName());
+                }
+                out.write(buffer, 0, read);
+                chunk++;
+            }
+            if (chunk != checksums.length) {
+                throw new IOException(source.getName() + " is shorter than its manifest entry");
+            }
+            out.getFD().sync();
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Fills the buffer unless the stream ends first.
+     *
+     * @return The number of bytes read, 0 at the end of the stream.
+     */
+    private static int readChunk(FileInputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        int read;
+        while (total < buffer.length && (read = in.read(buffer, total, buffer.length - total)) > 0) {
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Table describes a tracked table and the SQL used to back it up and replay it.
+     */
+    private static class Table {
+        final String name;
+        final String[] keys;
+        final String[] columns;
+        final String types;
+        final String selectChangedSql;
+        final String upsertSql;
+        final String deleteSql;
+
+        Table(String name, String[] keys, String[] columns, String types) {
+            this.name = name;
+            this.keys = keys;
+            this.columns = columns;
+            this.types = types;
+
+            // The change log columns holding each key, in order
+            String[] logged = {DatabaseHelper.COLUMN_ROW_ID, DatabaseHelper.COLUMN_ROW_DAY};
+            StringBuilder select = new StringBuilder("SELECT ");
+            StringBuilder distinct = new StringBuilder();
+            StringBuilder join = new StringBuilder();
+            StringBuilder insert = new StringBuilder("INSERT OR REPLACE INTO ").append(name).append(" (");
+            StringBuilder values = new StringBuilder();
+            StringBuilder delete = new StringBuilder("DELETE FROM ").append(name).append(" WHERE ");
+            for (int k = 0; k < keys.length; k++) {
+                String separator = k == 0 ? "" : ", ";
+                String and = k == 0 ? "" : " AND ";
+                select.append(separator).append("c.").append(logged[k]);
+                distinct.append(separator).append(logged[k]);
+                join.append(and).append("t.").append(keys[k]).append(" = c.").append(logged[k]);
+                insert.append(separator).append(keys[k]);
+                values.append(separator).append("?");
+                delete.append(and).append(keys[k]).append(" = ?");
+            }
+            select.append(", t.").append(keys[0]);
+            for (String column : columns) {
+                select.append(", t.").append(column);
+                insert.append(", ").append(column);
+                values.append(", ?");
+            }
+            select.append(" FROM (SELECT DISTINCT ").append(distinct)
+                    .append(" FROM ").append(DatabaseHelper.TABLE_CHANGE_LOG)
+                    .append(" WHERE ").append(DatabaseHelper.COLUMN_TABLE).append(" = ?")
+                    .append(" AND ").append(DatabaseHelper.COLUMN_SEQ).append(" > ?")
+                    .append(" AND ").append(DatabaseHelper.COLUMN_SEQ).append(" <= ?) c")
+                    .append(" LEFT JOIN ").append(name).append(" t ON ").append(join);
+            selectChangedSql = select.toString();
+            upsertSql = insert.append(") VALUES (").append(values).append(")").toString();
+            deleteSql = delete.toString();
+        }
+    }
+
+    /**
+     * ChunkWriter writes delta rows in chunks, each prefixed by its row count
+     * and length, and records the CRC32 of every chunk.
+     */
+    private static class ChunkWriter {
+        private final FileOutputStream stream;
+        private final DataOutputStream file;
+        private final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        private final DataOutputStream rows = new DataOutputStream(chunk);
+        private final int rowsPerChunk;
+        private final List<Long> checksums = new ArrayList<>();
+        private int rowCount;
+
+        ChunkWriter(File target, int rowsPerChunk) throws IOException {
+            this.stream = new FileOutputStream(target);
+            this.file = new DataOutputStream(new BufferedOutputStream(stream));
+            this.rowsPerChunk = rowsPerChunk;
+            file.writeInt(DELTA_MAGIC);
+        }
+
+        DataOutputStream startRow() {
+            return rows;
+        }
+
+        void endRow() throws IOException {
+            if (++rowCount == rowsPerChunk) {
+                flushChunk();
+            }
+        }
+
+        long[] getChecksums() {
+            long[] values = new long[checksums.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = checksums.get(i);
+            }
+            return values;
+        }
+
+        void close() throws IOException {
+            try {
+                if (rowCount > 0) {
+                    flushChunk();
+                }
+                file.flush();
+                stream.getFD().sync(); // On disk before the manifest lists it
+            } finally {
+                file.close();
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            rows.flush();
+            byte[] bytes = chunk.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            checksums.add(crc.getValue());
+            file.writeInt(rowCount);
+            file.writeInt(bytes.length);
+            file.write(bytes);
+            chunk.reset();
+            rowCount = 0;
+        }
+    }
+
+    /**
+     * Entry is one file of the chain and the change log range it covers.
+     */
+    private static class Entry {
+        final String file;
+        final long fromSeq;
+        final long toSeq;
+        final long[] checksums;
+
+        Entry(String file, long fromSeq, long toSeq, long[] checksums) {
+            this.file = file;
+            this.fromSeq = fromSeq;
+            this.toSeq = toSeq;
+            this.checksums = checksums;
+        }
+    }
+
+    /**
+     * Manifest names the chain on its first line, "chain id", then lists
+     * the chain, base first, one line per file: "file fromSeq toSeq crc,crc,...".
+     */
+    private static class Manifest {
+        final String chainId;
+        final List<Entry> entries = new ArrayList<>();
+
+        Manifest(String chainId) {
+            this.chainId = chainId;
+        }
+
+        /**
+         * @return The manifest in a directory, or null if there is none.
+         */
+        static Manifest read(File directory) throws IOException {
+            File file = new File(directory, MANIFEST);
+            if (!file.exists()) {
+                return null;
+            }
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            Manifest manifest;
+            try {
+                String line = reader.readLine();
+                if (line == null || !line.startsWith(CHAIN_PREFIX)) {
+                    throw new IOException("Manifest does not name its chain");
+                }
+                manifest = new Manifest(line.substring(CHAIN_PREFIX.length()));
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    String[] fields = line.split(" ");
+                    if (fields.length != 4) {
+                        throw new IOException("Malformed manifest line: " + line);
+                    }
+                    String[] crcs = fields[3].equals("-") ? new String[0] : fields[3].split(",");
+                    long[] checksums = new long[crcs.length];
+                    for (int i = 0; i < crcs.length; i++) {
+                        checksums[i] = Long.parseLong(crcs[i], 16);
+                    }
+                    manifest.entries.add(new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), checksums));
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed manifest", e);
+            } finally {
+                reader.close();
+            }
+            return manifest.entries.isEmpty() ? null : manifest;
+        }
+
+        long lastSeq() {
+            return entries.get(entries.size() - 1).toSeq;
+        }
+
+        boolean lists(String name) {
+            for (Entry entry : entries) {
+                if (entry.file.equals(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Writes the manifest to a temporary file, syncs it and renames it,
+         * so a crash leaves either the old chain or the new one. The
+         * directory is synced last, which also makes the renames of the
+         * files the manifest lists durable.
+         */
+        void write(File directory) throws IOException {
+            File temp = new File(directory, MANIFEST + ".tmp");
+            FileOutputStream out = new FileOutputStream(temp);
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            try {
+                writer.write(CHAIN_PREFIX + chainId + "\n");
+                for (Entry entry : entries) {
+                    writer.write(entry.file + " " + entry.fromSeq + " " + entry.toSeq + " ");
+                    if (entry.checksums.length == 0) {
+                        writer.write("-");
+                    }
+                    for (int i = 0; i < entry.checksums.length; i++) {
+                        writer.write((i > 0 ? "," : "") + Long.toHexString(entry.checksums[i]));
+                    }
+                    writer.write("\n");
+                }
+                writer.flush();
+                out.getFD().sync();
+            } finally {
+                writer.close();
+            }
+            if (!temp.renameTo(new File(directory, MANIFEST))) {
+                throw new IOException("Could not write " + MANIFEST);
+            }
+            syncDirectory(directory);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.masstracker;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * InvalidationTracker tells observers which tables have changed. Writers
+ * report the tables each write touched; observers register the tables
+ * their query reads and are called only when one of them changes.
+ *
+ * Changes are coalesced: the first change starts a short window, every
+ * change made during it joins the same notification, and observers are
+ * called once on the main thread when it ends. A burst of writes, such as
+ * an import's chunks or rapid edits, therefore causes one refresh.
+ */
+public class InvalidationTracker {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+
+    /**
+     * Receives the tables changed during a window, on the main thread.
+     */
+    public interface Observer {
+        void onInvalidated(Set<String> tables);
+    }
+
+    private static InvalidationTracker instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final long debounceMillis;
+    private final Map<Observer, Set<String>> observers = new LinkedHashMap<>();
+    private final Map<String, Long> versions = new HashMap<>();
+    private final Set<String> pending = new HashSet<>();
+    private boolean scheduled;
+
+    /**
+     * @return The process-wide tracker.
+     */
+    public static synchronized InvalidationTracker getInstance() {
+        if (instance == null) {
+            instance = new InvalidationTracker(DEFAULT_DEBOUNCE_MILLIS);
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor for InvalidationTracker.
+     *
+     * @param debounceMillis How long changes are collected before observers are called.
+     */
+    public InvalidationTracker(long debounceMillis) {
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException("debounceMillis must not be negative: " + debounceMillis);
+        }
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Registers an observer for a set of tables, replacing any tables it was
+     * registered for before.
+     *
+     * @param observer The observer.
+     * @param tables   The tables its query reads.
+     */
+    public synchronized void addObserver(Observer observer, String... tables) {
+        observers.put(observer, new HashSet<>(Arrays.asList(tables)));
+    }
+
+    /**
+     * Unregisters an observer. Notifications already posted may still reach it.
+     *
+     * @param observer The observer.
+     */
+    public synchronized void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Reports that a write changed some tables. Safe to call from any thread,
+     * and cheap enough to call after every write.
+     *
+     * @param tables The tables the write touched.
+     */
+    public void notifyChanged(String... tables) {
+        synchronized (this) {
+            for (String table : tables) {
+                Long version = versions.get(table);
+                versions.put(table, version != null ? version + 1 : 1);
+            }
+            Collections.addAll(pending, tables);
+            if (scheduled) {
+                return; // Joins the window already open
+            }
+            scheduled = true;
+        }
+        mainHandler.postDelayed(this::dispatch, debounceMillis);
+    }
+
+    /**
+     * Returns a counter that grows every time one of the tables changes, so a
+     * query can tell whether its last result is still current.
+     *
+     * @param tables The tables a query reads.
+     * @return The sum of the tables' change counts.
+     */
+    public synchronized long version(String... tables) {
+        long version = 0;
+        for (String table : tables) {
+            Long changes = versions.get(table);
+            if (changes != null) {
+                version += changes;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Ends a window and calls every observer whose tables changed during it.
+     * Observers are called outside the lock, so they may add or remove
+     * observers and report further changes.
+     */
+    private void dispatch() {
+        Set<String> changed;
+        List<Observer> targets = new ArrayList<>();
+        synchronized (this) {
+            changed = Collections.unmodifiableSet(new HashSet<>(pending));
+            pending.clear();
+            scheduled = false;
+            for (Map.Entry<Observer, Set<String>> entry : observers.entrySet()) {
+                if (!Collections.disjoint(entry.getValue(), changed)) {
+                    targets.add(entry.getKey());
+                }
+            }
+        }
+        for (Observer observer : targets) {
+            observer.onInvalidated(changed);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.masstracker;
+
+import androidx.lifecycle.LiveData;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * LiveQuery is a LiveData that holds the result of a database query and
+ * re-runs it on MassQueryExecutor when InvalidationTracker reports a change
+ * to one of the tables it reads. It listens only while it has active
+ * observers. When it becomes active again it re-runs only if its tables
+ * changed in the meantime, and a newer run always supersedes an older one.
+ *
+ * @param <T> The type of the query's result.
+ */
+public class LiveQuery<T> extends LiveData<T> implements InvalidationTracker.Observer {
+
+    private final InvalidationTracker tracker;
+    private final String[] tables;
+    private final Callable<T> query;
+    private final MassQueryExecutor executor = MassQueryExecutor.getInstance();
+    private final MassQueryExecutor.Slot slot = new MassQueryExecutor.Slot();
+
+    // The tables' version when the last run started; -1 until the first run
+    private long seenVersion = -1;
+
+    /**
+     * Constructor for LiveQuery. The query runs on first activation.
+     *
+     * @param tracker The tracker reporting changes.
+     * @param query   The query; it runs on a background thread.
+     * @param tables  The tables the query reads.
+     */
+    public LiveQuery(InvalidationTracker tracker, Callable<T> query, String... tables) {
+        this.tracker = tracker;
+        this.query = query;
+        this.tables = tables.clone();
+    }
+
+    /**
+     * Runs the query again, replacing any run still in progress.
+     */
+    public void refresh() {
+        seenVersion = tracker.version(tables);
+        executor.submitLatest(slot, query, this::setValue);
+    }
+
+    @Override
+    public void onInvalidated(Set<String> changed) {
+        refresh();
+    }
+
+    @Override
+    protected void onActive() {
+        tracker.addObserver(this, tables);
+        if (seenVersion == -1 || tracker.version(tables) != seenVersion) {
+            refresh();
+        }
+    }
+
+    @Override
+    protected void onInactive() {
+        tracker.removeObserver(this);
+    }
+}
@@ -0,0 +1,579 @@
+package com.example.masstracker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * MappedLogMassStore keeps mass logs in a directory of memory-mapped files
+ * of fixed-width records, using only the plain JVM.
+ *
+ * Writes are appended to the current log segment, a preallocated file
+ * mapped into memory, so an append is a few stores into the page cache. A
+ * delete appends a tombstone. The latest value of every key written since
+ * the last compaction is also held in a sorted in-memory table.
+ *
+ * Compaction merges those logs into a base file sorted by (user, day) that
+ * holds one record per live key, then deletes the logs it covers. Only every
+ * INDEX_INTERVAL-th key of the base is kept in memory: a lookup binary
+ * searches that sparse index and scans at most one interval of the mapped
+ * file. Compaction runs on a background thread once enough records have been
+ * appended; reads and appends continue while it runs.
+ *
+ * Each record carries a CRC32, so on open a segment is replayed up to its
+ * last complete record and a torn write at the end of a log is dropped.
+ */
+public class MappedLogMassStore implements MassStore {
+
+    public static final int DEFAULT_SEGMENT_RECORDS = 64 * 1024; // 1 MB segments
+    public static final int DEFAULT_COMPACT_RECORDS = 256 * 1024;
+
+    // user, day, grams and a CRC32 of the other three, as big-endian ints
+    static final int RECORD_BYTES = 16;
+
+    // Base records per sparse index entry
+    private static final int INDEX_INTERVAL = 64;
+
+    private static final int TOMBSTONE = Integer.MIN_VALUE;
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+
+    private static final String BASE_PREFIX = "base-";
+    private static final String LOG_PREFIX = "log-";
+    private static final String SUFFIX = ".dat";
+
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mass-log-compactor");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File directory;
+    private final int segmentRecords;
+    private final int compactRecords;
+
+    // Guarded by this
+    private final CRC32 crc = new CRC32();
+    private final byte[] scratch = new byte[12];
+    private Base base;
+    private TreeMap<Long, Integer> memtable = new TreeMap<>(); // Grams or TOMBSTONE by key
+    private TreeMap<Long, Integer> frozen; // The memtable a running compaction is merging
+    private MappedByteBuffer segment;
+    private long segmentSeq;
+    private int segmentCount;
+    private int tailRecords;
+    private Future<Void> compaction;
+    private boolean closed;
+
+    /**
+     * Opens a store, creating the directory if needed and replaying the logs
+     * written since the last compaction.
+     *
+     * @param directory      The directory holding the store's files.
+     * @param segmentRecords The number of records per log segment.
+     * @param compactRecords The number of appended records that starts a background compaction.
+     * @throws IOException If the files could not be read.
+     */
+    public MappedLogMassStore(File directory, int segmentRecords, int compactRecords) throws IOException {
+        if (segmentRecords <= 0 || compactRecords <= 0) {
+            throw new IllegalArgumentException("segmentRecords and compactRecords must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory.getPath());
+        }
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.compactRecords = compactRecords;
+
+        // The newest base wins; anything it covers is left over from a finished compaction
+        long baseSeq = newest(BASE_PREFIX);
+        base = openBase(baseSeq == 0 ? null : file(BASE_PREFIX, baseSeq), baseSeq);
+        long lastSeq = baseSeq;
+        for (long seq : sequences(LOG_PREFIX)) {
+            if (seq <= baseSeq) {
+                file(LOG_PREFIX, seq).delete();
+            } else {
+                tailRecords += replay(file(LOG_PREFIX, seq), memtable);
+                lastSeq = seq;
+            }
+        }
+        for (long seq : sequences(BASE_PREFIX)) {
+            if (seq != baseSeq) {
+                file(BASE_PREFIX, seq).delete();
+            }
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".tmp")) {
+                    file.delete(); // An interrupted compaction
+                }
+            }
+        }
+        segmentSeq = lastSeq;
+        roll();
+    }
+
+    @Override
+    public synchronized void append(int userId, int epochDay, long grams) throws IOException {
+        if (grams <= TOMBSTONE || grams > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("grams out of range: " + grams);
+        }
+        write(userId, epochDay, (int) grams);
+    }
+
+    @Override
+    public void scan(int userId, int fromDay, int toDay, Visitor visitor) throws IOException {
+        if (toDay < fromDay) {
+            return;
+        }
+        long from = key(userId, fromDay);
+        long to = key(userId, toDay);
+        Base snapshot;
+        TreeMap<Long, Integer> newer = new TreeMap<>();
+        synchronized (this) {
+            checkOpen();
+            snapshot = base;
+            if (frozen != null) {
+                newer.putAll(frozen.subMap(from, true, to, true));
+            }
+            newer.putAll(memtable.subMap(from, true, to, true));
+        }
+        // The base is immutable and stays mapped after a compaction replaces it, so read it unlocked
+        merge(snapshot, snapshot.lowerBound(from), to, newer.entrySet().iterator(),
+                (key, grams) -> visitor.visit(dayOf(key), grams));
+    }
+
+    @Override
+    public synchronized long get(int userId, int epochDay) throws IOException {
+        checkOpen();
+        long key = key(userId, epochDay);
+        Integer grams = memtable.get(key);
+        if (grams == null && frozen != null) {
+            grams = frozen.get(key);
+        }
+        if (grams != null) {
+            return grams == TOMBSTONE ? NOT_FOUND : grams;
+        }
+        return base.get(key);
+    }
+
+    @Override
+    public synchronized boolean delete(int userId, int epochDay) throws IOException {
+        if (get(userId, epochDay) == NOT_FOUND) {
+            return false;
+        }
+        write(userId, epochDay, TOMBSTONE);
+        return true;
+    }
+
+    /**
+     * Merges every log written so far into a new base. Waits for a running
+     * background compaction first, since it may not include the latest logs.
+     */
+    @Override
+    public void compact() throws IOException {
+        Future<Void> running;
+        synchronized (this) {
+            checkOpen();
+            running = compaction;
+        }
+        if (running != null) {
+            await(running);
+        }
+        synchronized (this) {
+            checkOpen();
+            if (compaction == null) {
+                compaction = COMPACTOR.submit(this::runCompaction);
+            }
+            running = compaction;
+        }
+        await(running);
+    }
+
+    @Override
+    public void close() throws IOException {
+        Future<Void> running;
+        synchronized (this) {
+            running = compaction;
+        }
+        try {
+            if (running != null) {
+                await(running);
+            }
+        } finally {
+            synchronized (this) {
+                if (!closed) {
+                    closed = true;
+                    segment.force();
+                    segment = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the current segment and the memtable. Called with
+     * the lock held.
+     */
+    private void write(int userId, int epochDay, int grams) throws IOException {
+        checkOpen();
+        if (segmentCount == segmentRecords) {
+            roll();
+        }
+        int offset = segmentCount * RECORD_BYTES;
+        segment.putInt(offset, userId);
+        segment.putInt(offset + 4, epochDay);
+        segment.putInt(offset + 8, grams);
+        segment.putInt(offset + 12, checksum(crc, scratch, userId, epochDay, grams));
+        segmentCount++;
+        memtable.put(key(userId, epochDay), grams);
+        if (++tailRecords >= compactRecords && compaction == null) {
+            compaction = COMPACTOR.submit(this::runCompaction);
+        }
+    }
+
+    /**
+     * Flushes the current segment and starts the next one. Called with the lock held.
+     */
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        segmentSeq++;
+        RandomAccessFile file = new RandomAccessFile(file(LOG_PREFIX, segmentSeq), "rw");
+        try {
+            // The mapping outlives the file handle
+            segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentRecords * RECORD_BYTES);
+        } finally {
+            file.close();
+        }
+        segmentCount = 0;
+    }
+
+    /**
+     * Freezes the memtable, merges it with the base into a new base file and
+     * swaps that in. Appends go to a fresh segment and memtable meanwhile.
+     */
+    private Void runCompaction() throws IOException {
+        Base old;
+        TreeMap<Long, Integer> merging;
+        long upTo;
+        synchronized (this) {
+            if (closed) {
+                compaction = null;
+                return null;
+            }
+            roll();
+            upTo = segmentSeq - 1; // Every segment before the new one is in the memtable
+            merging = memtable;
+            frozen = merging;
+            memtable = new TreeMap<>();
+            tailRecords = 0;
+            old = base;
+        }
+
+        Base merged = null;
+        try {
+            merged = writeBase(old, merging, upTo);
+        } finally {
+            synchronized (this) {
+                if (merged != null) {
+                    base = merged;
+                } else {
+                    // Keep the frozen logs, with anything written since on top
+                    merging.putAll(memtable);
+                    memtable = merging;
+                    tailRecords += merging.size();
+                }
+                frozen = null;
+                compaction = null;
+            }
+        }
+
+        if (old.file != null) {
+            old.file.delete(); // Readers still holding it keep their mapping
+        }
+        for (long seq : sequences(LOG_PREFIX)) {
+            if (seq <= upTo) {
+                file(LOG_PREFIX, seq).delete();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the merge of a base and newer logs to a new base file, dropping
+     * replaced values and tombstones.
+     */
+    private Base writeBase(Base old, TreeMap<Long, Integer> newer, long seq) throws IOException {
+        File temp = new File(directory, BASE_PREFIX + seq + ".tmp");
+        File target = file(BASE_PREFIX, seq);
+        CRC32 checksum = new CRC32();
+        byte[] bytes = new byte[12];
+        ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+        FileChannel channel = new FileOutputStream(temp).getChannel();
+        try {
+            merge(old, 0, Long.MAX_VALUE, newer.entrySet().iterator(), (key, grams) -> {
+                if (buffer.remaining() < RECORD_BYTES) {
+                    drain(buffer, channel);
+                }
+                int userId = userOf(key);
+                int epochDay = dayOf(key);
+                buffer.putInt(userId).putInt(epochDay).putInt(grams)
+                        .putInt(checksum(checksum, bytes, userId, epochDay, grams));
+            });
+            drain(buffer, channel);
+            channel.force(true); // On disk before it replaces the logs
+        } finally {
+            channel.close();
+        }
+        if ((target.exists() && !target.delete()) || !temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Could not create " + target.getPath());
+        }
+        return openBase(target, seq);
+    }
+
+    /**
+     * Visits the live records of a base from position start, merged with
+     * newer values, which win on equal keys, up to the key to.
+     */
+    private static void merge(Base base, int start, long to, Iterator<Map.Entry<Long, Integer>> newer,
+                              Sink sink) throws IOException {
+        int i = start;
+        Map.Entry<Long, Integer> next = newer.hasNext() ? newer.next() : null;
+        while (true) {
+            long baseKey = i < base.count ? base.keyAt(i) : Long.MAX_VALUE;
+            if (baseKey > to) {
+                baseKey = Long.MAX_VALUE;
+            }
+            if (next == null && baseKey == Long.MAX_VALUE) {
+                return;
+            }
+            if (next != null && next.getKey() <= baseKey) {
+                if (next.getKey() == baseKey) {
+                    i++; // Replaced or deleted since the base was written
+                }
+                if (next.getValue() != TOMBSTONE) {
+                    sink.accept(next.getKey(), next.getValue());
+                }
+                next = newer.hasNext() ? newer.next() : null;
+            } else {
+                sink.accept(baseKey, base.gramsAt(i));
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Reads a log segment into a memtable, stopping at the first record that
+     * fails its checksum, which marks the end of what was written.
+     *
+     * @return The number of records replayed.
+     */
+    private static int replay(File file, TreeMap<Long, Integer> memtable) throws IOException {
+        ByteBuffer records = map(file);
+        CRC32 checksum = new CRC32();
+        byte[] bytes = new byte[12];
+        int count = 0;
+        for (int offset = 0; offset + RECORD_BYTES <= records.capacity(); offset += RECORD_BYTES) {
+            int userId = records.getInt(offset);
+            int epochDay = records.getInt(offset + 4);
+            int grams = records.getInt(offset + 8);
+            if (records.getInt(offset + 12) != checksum(checksum, bytes, userId, epochDay, grams)) {
+                break;
+            }
+            memtable.put(key(userId, epochDay), grams);
+            count++;
+        }
+        return count;
+    }
+
+    private static Base openBase(File file, long seq) throws IOException {
+        ByteBuffer records = file == null ? ByteBuffer.allocate(0) : map(file);
+        int count = records.capacity() / RECORD_BYTES;
+        long[] sparse = new long[(count + INDEX_INTERVAL - 1) / INDEX_INTERVAL];
+        Base base = new Base(file, seq, records, count, sparse);
+        for (int i = 0; i < sparse.length; i++) {
+            sparse[i] = base.keyAt(i * INDEX_INTERVAL);
+        }
+        return base;
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static int checksum(CRC32 crc, byte[] bytes, int userId, int epochDay, int grams) {
+        int[] values = {userId, epochDay, grams};
+        for (int v = 0; v < values.length; v++) {
+            bytes[v * 4] = (byte) (values[v] >>> 24);
+            bytes[v * 4 + 1] = (byte) (values[v] >>> 16);
+            bytes[v * 4 + 2] = (byte) (values[v] >>> 8);
+            bytes[v * 4 + 3] = (byte) values[v];
+        }
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Orders keys by user, then day. The day's sign bit is flipped so days
+     * before 1970 sort before later ones in the unsigned low half.
+     */
+    static long key(int userId, int epochDay) {
+        return ((long) userId << 32) | ((epochDay ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+    }
+
+    static int userOf(long key) {
+        return (int) (key >> 32);
+    }
+
+    static int dayOf(long key) {
+        return (int) key ^ Integer.MIN_VALUE;
+    }
+
+    private File file(String prefix, long seq) {
+        return new File(directory, prefix + seq + SUFFIX);
+    }
+
+    private long newest(String prefix) {
+        List<Long> seqs = sequences(prefix);
+        return seqs.isEmpty() ? 0 : seqs.get(seqs.size() - 1);
+    }
+
+    /**
+     * @return The sequence numbers of the files with a prefix, ascending.
+     */
+    private List<Long> sequences(String prefix) {
+        List<Long> seqs = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(prefix) && name.endsWith(SUFFIX)) {
+                    try {
+                        seqs.add(Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // Not one of ours
+                    }
+                }
+            }
+        }
+        Collections.sort(seqs);
+        return seqs;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Store is closed");
+        }
+    }
+
+    private static void await(Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compacting");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Compaction failed", cause);
+        }
+    }
+
+    /**
+     * Receives the live records of a merge in key order.
+     */
+    private interface Sink {
+        void accept(long key, int grams) throws IOException;
+    }
+
+    /**
+     * Base is an immutable, sorted base file and its sparse index.
+     */
+    private static class Base {
+        final File file;
+        final long seq;
+        final ByteBuffer records;
+        final int count;
+        final long[] sparse; // The key of every INDEX_INTERVAL-th record
+
+        Base(File file, long seq, ByteBuffer records, int count, long[] sparse) {
+            this.file = file;
+            this.seq = seq;
+            this.records = records;
+            this.count = count;
+            this.sparse = sparse;
+        }
+
+        long keyAt(int index) {
+            int offset = index * RECORD_BYTES;
+            return key(records.getInt(offset), records.getInt(offset + 4));
+        }
+
+        int gramsAt(int index) {
+            return records.getInt(index * RECORD_BYTES + 8);
+        }
+
+        /**
+         * @return The position of the first record whose key is at least key.
+         */
+        int lowerBound(long key) {
+            // First sampled key at or above the key; the answer lies in the interval before it
+            int lo = 0;
+            int hi = sparse.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sparse[mid] < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int i = Math.max(0, lo - 1) * INDEX_INTERVAL;
+            while (i < count && keyAt(i) < key) {
+                i++;
+            }
+            return i;
+        }
+
+        long get(long key) {
+            int i = lowerBound(key);
+            return i < count && keyAt(i) == key ? gramsAt(i) : NOT_FOUND;
+        }
+    }
+}
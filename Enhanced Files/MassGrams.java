@@ -0,0 +1,36 @@
+package com.example.masstracker;
+
+/**
+ * MassGrams converts between mass values and the fixed-point integers the
+ * database stores: thousandths of the mass unit, which are grams when masses
+ * are entered in kilograms. Integers take fewer bytes than REAL values for
+ * typical masses, and they compare and sum exactly.
+ */
+public final class MassGrams {
+
+    // Fixed-point scale: three decimals is finer than any bathroom scale reports
+    public static final int PER_UNIT = 1000;
+
+    private MassGrams() {
+    }
+
+    /**
+     * Converts a mass to the stored integer, rounding to the nearest thousandth.
+     *
+     * @param mass The mass value.
+     * @return The mass in thousandths of the unit.
+     */
+    public static long of(double mass) {
+        return Math.round(mass * PER_UNIT);
+    }
+
+    /**
+     * Converts a stored integer back to a mass.
+     *
+     * @param grams The mass in thousandths of the unit.
+     * @return The mass value.
+     */
+    public static double toMass(long grams) {
+        return grams / (double) PER_UNIT;
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.masstracker;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * MassImporter bulk-loads mass logs from delimited text such as scale CSV
+ * exports. A worker thread parses the stream into fixed-size batches while the
+ * calling thread inserts them through one reused compiled statement,
+ * committing one transaction per batch. Batches are recycled between the two
+ * threads, so memory use stays constant however large the file is.
+ */
+public class MassImporter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 5000;
+
+    // Number of batches in flight: one being parsed, one queued, one being inserted
+    private static final int BATCH_COUNT = 3;
+
+    // A later row for the same day replaces the earlier one, as in MassSeries
+    static final String INSERT_SQL =
+            "INSERT OR REPLACE INTO " + DatabaseHelper.TABLE_MASS + " (" +
+                    DatabaseHelper.COLUMN_USER_ID_FK + ", " +
+                    DatabaseHelper.COLUMN_DAY + ", " +
+                    DatabaseHelper.COLUMN_MASS_GRAMS + ") VALUES (?, ?, ?)";
+
+    /**
+     * Receives progress after each committed chunk.
+     */
+    public interface ProgressListener {
+        /**
+         * @param rowsImported  The number of rows inserted so far.
+         * @param rowsSkipped   The number of lines that could not be parsed so far.
+         * @param rowsPerSecond The average insert rate since the import started.
+         */
+        void onProgress(long rowsImported, long rowsSkipped, double rowsPerSecond);
+    }
+
+    /**
+     * Result summarises a finished import.
+     */
+    public static class Result {
+        private final long rowsImported;
+        private final long rowsSkipped;
+        private final long elapsedMillis;
+
+        Result(long rowsImported, long rowsSkipped, long elapsedMillis) {
+            this.rowsImported = rowsImported;
+            this.rowsSkipped = rowsSkipped;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long getRowsImported() {
+            return rowsImported;
+        }
+
+        public long getRowsSkipped() {
+            return rowsSkipped;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public double getRowsPerSecond() {
+            return rowsPerSecond(rowsImported, elapsedMillis);
+        }
+    }
+
+    private final DatabaseHelper dbHelper;
+    private final int chunkSize;
+    private final char delimiter;
+    private final QueryMetrics metrics = QueryMetrics.getInstance();
+
+    /**
+     * Constructor for MassImporter.
+     *
+     * @param dbHelper  The database to import into.
+     * @param chunkSize The number of rows committed per transaction.
+     * @param delimiter The field separator, for example ',' or ';'.
+     */
+    public MassImporter(DatabaseHelper dbHelper, int chunkSize, char delimiter) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.dbHelper = dbHelper;
+        this.chunkSize = chunkSize;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Imports "date, mass" rows for a user. Lines that do not parse, such as a
+     * header row, and lines whose mass is not a positive number are skipped
+     * and counted. This blocks until the import is done, so it must not be
+     * called on the UI thread.
+     *
+     * @param userId   The ID of the user the logs belong to.
+     * @param reader   The delimited text; it is closed when the import ends.
+     * @param listener Receives progress after each chunk, or null.
+     * @return A summary of the import.
+     * @throws IOException If reading the input fails.
+     */
+    public Result importLogs(int userId, Reader reader, ProgressListener listener) throws IOException {
+        BlockingQueue<Batch> free = new ArrayBlockingQueue<>(BATCH_COUNT);
+        BlockingQueue<Batch> full = new ArrayBlockingQueue<>(BATCH_COUNT);
+        for (int i = 0; i < BATCH_COUNT; i++) {
+            free.add(new Batch(chunkSize));
+        }
+
+        Parser parser = new Parser(new BufferedReader(reader), free, full);
+        Thread parserThread = new Thread(parser, "mass-import-parser");
+        parserThread.start();
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement(INSERT_SQL);
+        long start = System.currentTimeMillis();
+        long imported = 0;
+        try {
+            while (true) {
+                Batch batch = full.take();
+                if (batch.size == 0 && batch.last) {
+                    break;
+                }
+
+                // One transaction per chunk: a single journal sync instead of one per row
+                long chunkStart = System.nanoTime();
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < batch.size; i++) {
+                        insert.bindLong(1, userId);
+                        insert.bindLong(2, batch.days[i]);
+                        insert.bindLong(3, MassGrams.of(batch.masses[i]));
+                        insert.executeInsert();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                metrics.record("mass.import.chunk", chunkStart, batch.size, 0);
+                imported += batch.size;
+
+                if (listener != null) {
+                    listener.onProgress(imported, parser.skipped, rowsPerSecond(imported, System.currentTimeMillis() - start));
+                }
+                boolean last = batch.last;
+                batch.clear();
+                free.put(batch);
+                if (last) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } finally {
+            insert.close();
+            parserThread.interrupt(); // Unblocks the parser if inserting failed part way
+        }
+
+        if (parser.error != null) {
+            throw parser.error;
+        }
+        return new Result(imported, parser.skipped, System.currentTimeMillis() - start);
+    }
+
+    private static double rowsPerSecond(long rows, long elapsedMillis) {
+        return elapsedMillis > 0 ? rows * 1000.0 / elapsedMillis : rows;
+    }
+
+    /**
+     * Batch is a reusable block of parsed rows.
+     */
+    private static class Batch {
+        final int[] days;
+        final double[] masses;
+        int size;
+        boolean last;
+
+        Batch(int capacity) {
+            days = new int[capacity];
+            masses = new double[capacity];
+        }
+
+        void clear() {
+            size = 0;
+            last = false;
+        }
+    }
+
+    /**
+     * Parser reads lines into free batches and hands full ones to the inserter.
+     */
+    private class Parser implements Runnable {
+        private final BufferedReader reader;
+        private final BlockingQueue<Batch> free;
+        private final BlockingQueue<Batch> full;
+        volatile long skipped;
+        volatile IOException error;
+
+        Parser(BufferedReader reader, BlockingQueue<Batch> free, BlockingQueue<Batch> full) {
+            this.reader = reader;
+            this.free = free;
+            this.full = full;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Batch batch = free.take();
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!parseLine(line, batch)) {
+                            if (!line.trim().isEmpty()) {
+                                skipped++;
+                            }
+                            continue;
+                        }
+                        if (batch.size == batch.days.length) {
+                            full.put(batch);
+                            batch = free.take();
+                        }
+                    }
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    try {
+                        // Always hand over a final batch so the inserter stops waiting
+                        batch.last = true;
+                        full.put(batch);
+                    } finally {
+                        reader.close();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+
+        /**
+         * Parses "date{delimiter}mass" into the batch.
+         *
+         * @return True if the line held a valid row with a finite, positive mass.
+         */
+        private boolean parseLine(String line, Batch batch) {
+            int split = line.indexOf(delimiter);
+            if (split < 0) {
+                return false;
+            }
+            int end = line.indexOf(delimiter, split + 1);
+            int day = EpochDays.tryParse(unquote(line.substring(0, split)));
+            if (day == EpochDays.INVALID) {
+                return false;
+            }
+            double mass;
+            try {
+                mass = Double.parseDouble(unquote(line.substring(split + 1, end < 0 ? line.length() : end)));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            // parseDouble also accepts "NaN" and "Infinity", which are no mass
+            if (Double.isNaN(mass) || Double.isInfinite(mass) || mass <= 0) {
+                return false;
+            }
+            batch.days[batch.size] = day;
+            batch.masses[batch.size] = mass;
+            batch.size++;
+            return true;
+        }
+
+        private String unquote(String field) {
+            field = field.trim();
+            if (field.length() >= 2 && field.charAt(0) == '"' && field.charAt(field.length() - 1) == '"') {
+                return field.substring(1, field.length() - 1).trim();
+            }
+            return field;
+        }
+    }
+}
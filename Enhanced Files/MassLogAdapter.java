@@ -4,63 +4,167 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.Future;
 
+/**
+ * MassLogAdapter shows a page of mass logs in a grid. New pages are diffed
+ * against the one on screen on a background thread, and only the cells whose
+ * content changed are rebound instead of reloading the whole grid. The diff
+ * only reads the two pages, so it runs through computeLatest and does not
+ * wait behind queries or a restore.
+ *
+ * Binding does not allocate: each cell caches its TextView and a character
+ * buffer, colours are resolved once, and the "date - mass" text is written
+ * straight from the page's primitive data into the buffer when a cell is shown.
+ */
 public class MassLogAdapter extends BaseAdapter {
 
-    private Context context;
-    private ArrayList<String> massLogs;
+    private final Context context;
+    private final AdapterView<?> gridView;
+    private final MassQueryExecutor executor = MassQueryExecutor.getInstance();
+    private final MassQueryExecutor.Slot diffSlot = new MassQueryExecutor.Slot();
+    private final int selectedColor;
+    private final int normalColor;
+    private MassPage massLogs;
     private int selectedPosition = -1;
 
-    public MassLogAdapter(Context context, ArrayList<String> massLogs) {
+    /**
+     * Constructor for MassLogAdapter.
+     *
+     * @param context  The context used to inflate cells.
+     * @param gridView The grid this adapter is attached to.
+     */
+    public MassLogAdapter(Context context, AdapterView<?> gridView) {
         this.context = context;
-        this.massLogs = massLogs;
+        this.gridView = gridView;
+        selectedColor = context.getResources().getColor(android.R.color.holo_blue_light);
+        normalColor = context.getResources().getColor(android.R.color.transparent);
     }
 
     @Override
     public int getCount() {
-        return massLogs.size();
+        return massLogs == null ? 0 : massLogs.size();
     }
 
     @Override
     public Object getItem(int position) {
-        return massLogs.get(position);
+        return MassLogQueries.formatLog(massLogs.dayAt(position), massLogs.massAt(position));
     }
 
     @Override
     public long getItemId(int position) {
-        return position;
+        return massLogs.dayAt(position); // Dates are unique within a page
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
     }
 
     public void setSelectedPosition(int position) {
+        int previous = selectedPosition;
         this.selectedPosition = position;
-        notifyDataSetChanged();
+        // Only the previously and newly selected cells change
+        rebind(previous);
+        rebind(position);
     }
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
+        ViewHolder holder;
         if (convertView == null) {
             LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
             convertView = inflater.inflate(R.layout.grid_item, parent, false);
+            holder = new ViewHolder(convertView.findViewById(R.id.grid_item_text));
+            convertView.setTag(holder);
+        } else {
+            holder = (ViewHolder) convertView.getTag();
         }
 
-        TextView textView = convertView.findViewById(R.id.grid_item_text);
-        textView.setText(massLogs.get(position));
+        // setText(char[], int, int) reuses the TextView's wrapper around the buffer
+        int length = MassLogQueries.formatLog(holder.buffer, massLogs.dayAt(position), massLogs.massAt(position));
+        holder.textView.setText(holder.buffer, 0, length);
 
         // Highlight the selected item
-        if (position == selectedPosition) {
-            convertView.setBackgroundColor(context.getResources().getColor(android.R.color.holo_blue_light));
-        } else {
-            convertView.setBackgroundColor(context.getResources().getColor(android.R.color.transparent));
-        }
+        convertView.setBackgroundColor(position == selectedPosition ? selectedColor : normalColor);
 
         return convertView;
     }
 
-    public void updateData(List<String> displayList) {
+    /**
+     * Replaces the displayed page. The diff against the current page runs in
+     * the background; a newer call supersedes a diff that has not been applied.
+     *
+     * @param page The page to display.
+     */
+    public void updateData(MassPage page) {
+        MassPage current = massLogs;
+        Future<MassLogDiff> pending = executor.computeLatest(diffSlot, () -> MassLogDiff.compute(current, page), diff -> {
+            if (massLogs != current) {
+                return; // The page changed while diffing; a newer update is on its way
+            }
+            applyDiff(page, diff);
+        });
+        if (pending.isCancelled()) {
+            // Could not be queued, so no callback will come: redraw the whole grid instead
+            massLogs = page;
+            selectedPosition = -1;
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Swaps in the new page and rebinds only the affected cells.
+     */
+    private void applyDiff(MassPage page, MassLogDiff diff) {
+        massLogs = page;
+        if (diff.isEmpty()) {
+            return;
+        }
+        if (diff.isStructural()) {
+            // The grid has to add or remove cells, which only a full change notification does
+            selectedPosition = -1;
+            notifyDataSetChanged();
+            return;
+        }
+        if (selectedPosition != -1 && (diff.getMoved().length > 0 || diff.getInserted().length > 0)) {
+            // The selected entry may no longer be at the same position
+            int previous = selectedPosition;
+            selectedPosition = -1;
+            rebind(previous);
+        }
+        for (int position : diff.getDirtyPositions()) {
+            rebind(position);
+        }
+    }
+
+    /**
+     * Rebinds a single cell if it is on screen.
+     */
+    private void rebind(int position) {
+        int first = gridView.getFirstVisiblePosition();
+        if (position < first || position > gridView.getLastVisiblePosition() || position >= getCount()) {
+            return;
+        }
+        View cell = gridView.getChildAt(position - first);
+        if (cell != null) {
+            getView(position, cell, gridView);
+        }
+    }
+
+    /**
+     * ViewHolder caches a cell's text view and its text buffer.
+     */
+    private static class ViewHolder {
+        final TextView textView;
+        final char[] buffer = new char[MassLogQueries.LOG_TEXT_CAPACITY];
+
+        ViewHolder(TextView textView) {
+            this.textView = textView;
+        }
     }
 }
@@ -0,0 +1,211 @@
+package com.example.masstracker;
+
+import java.util.Arrays;
+
+/**
+ * MassLogDiff is the minimal set of edits that turns one page of mass logs
+ * into another. Entries are matched by date, which is unique within a page,
+ * so the diff is made of removals, insertions, changed masses and moves.
+ * It also lists the cells whose content differs, which is all a grid needs
+ * to rebind.
+ */
+public class MassLogDiff {
+
+    private static final int[] NONE = new int[0];
+
+    private final int[] removed;
+    private final int[] inserted;
+    private final int[] changed;
+    private final int[] moved;
+    private final int[] dirty;
+
+    private MassLogDiff(int[] removed, int[] inserted, int[] changed, int[] moved, int[] dirty) {
+        this.removed = removed;
+        this.inserted = inserted;
+        this.changed = changed;
+        this.moved = moved;
+        this.dirty = dirty;
+    }
+
+    /**
+     * Computes the diff between two pages in O(n log n). Pages are small, but
+     * this does not assume it, so it can also run on a background thread over
+     * longer lists.
+     *
+     * @param oldPage The page currently shown, or null if nothing is shown.
+     * @param newPage The page to show.
+     * @return The edits between the two pages.
+     */
+    public static MassLogDiff compute(MassPage oldPage, MassPage newPage) {
+        int oldCount = oldPage == null ? 0 : oldPage.size();
+        int newCount = newPage.size();
+
+        // Old entries sorted by date, packed as (day << 32 | position) so lookups need no boxing
+        long[] oldKeys = new long[oldCount];
+        for (int i = 0; i < oldCount; i++) {
+            oldKeys[i] = ((long) oldPage.dayAt(i) << 32) | i;
+        }
+        Arrays.sort(oldKeys);
+
+        boolean[] oldMatched = new boolean[oldCount];
+        int[] matchedOld = new int[newCount]; // Old position of each new entry, or -1 if inserted
+        int[] inserted = new int[newCount];
+        int[] changed = new int[newCount];
+        int insertedCount = 0;
+        int changedCount = 0;
+        for (int i = 0; i < newCount; i++) {
+            int oldPosition = find(oldKeys, newPage.dayAt(i));
+            matchedOld[i] = oldPosition;
+            if (oldPosition < 0) {
+                inserted[insertedCount++] = i;
+            } else {
+                oldMatched[oldPosition] = true;
+                if (Double.compare(oldPage.massAt(oldPosition), newPage.massAt(i)) != 0) {
+                    changed[changedCount++] = i;
+                }
+            }
+        }
+
+        int[] removed = new int[oldCount];
+        int removedCount = 0;
+        for (int i = 0; i < oldCount; i++) {
+            if (!oldMatched[i]) {
+                removed[removedCount++] = i;
+            }
+        }
+
+        // Matched entries on the longest run that kept its relative order stay put; the rest moved
+        boolean[] stays = longestIncreasingRun(matchedOld);
+        int[] moved = new int[newCount];
+        int movedCount = 0;
+        for (int i = 0; i < newCount; i++) {
+            if (matchedOld[i] >= 0 && !stays[i]) {
+                moved[movedCount++] = i;
+            }
+        }
+
+        int[] dirty = new int[newCount];
+        int dirtyCount = 0;
+        for (int i = 0; i < newCount; i++) {
+            if (i >= oldCount || oldPage.dayAt(i) != newPage.dayAt(i)
+                    || Double.compare(oldPage.massAt(i), newPage.massAt(i)) != 0) {
+                dirty[dirtyCount++] = i;
+            }
+        }
+
+        return new MassLogDiff(trim(removed, removedCount), trim(inserted, insertedCount),
+                trim(changed, changedCount), trim(moved, movedCount), trim(dirty, dirtyCount));
+    }
+
+    /**
+     * @return Positions in the old page of entries that were removed.
+     */
+    public int[] getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return Positions in the new page of entries that were inserted.
+     */
+    public int[] getInserted() {
+        return inserted;
+    }
+
+    /**
+     * @return Positions in the new page of entries whose mass changed.
+     */
+    public int[] getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return Positions in the new page of entries that moved.
+     */
+    public int[] getMoved() {
+        return moved;
+    }
+
+    /**
+     * @return Positions in the new page whose cell shows something different from before.
+     */
+    public int[] getDirtyPositions() {
+        return dirty;
+    }
+
+    /**
+     * @return True if the number of entries changed.
+     */
+    public boolean isStructural() {
+        return removed.length != inserted.length;
+    }
+
+    /**
+     * @return True if the two pages are identical.
+     */
+    public boolean isEmpty() {
+        return dirty.length == 0 && removed.length == 0;
+    }
+
+    /**
+     * Binary searches packed keys for a day.
+     *
+     * @return The old position of the day, or -1 if it is absent.
+     */
+    private static int find(long[] keys, int day) {
+        int lo = 0;
+        int hi = keys.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midDay = (int) (keys[mid] >> 32);
+            if (midDay < day) {
+                lo = mid + 1;
+            } else if (midDay > day) {
+                hi = mid - 1;
+            } else {
+                return (int) keys[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Marks the longest strictly increasing subsequence of the non-negative
+     * values, using patience sorting in O(n log n).
+     */
+    private static boolean[] longestIncreasingRun(int[] values) {
+        int n = values.length;
+        int[] tails = new int[n];        // Index of the smallest tail for each run length
+        int[] previous = new int[n];     // Predecessor of each index in its run
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            if (values[i] < 0) {
+                continue;
+            }
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) {
+                length++;
+            }
+        }
+
+        boolean[] marked = new boolean[n];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            marked[i] = true;
+        }
+        return marked;
+    }
+
+    private static int[] trim(int[] values, int count) {
+        return count == 0 ? NONE : Arrays.copyOf(values, count);
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.masstracker;
+
+/**
+ * MassLogQueries holds the pagination, sorting and search operations the
+ * dashboard runs over a loaded MassSeries. They depend on nothing from
+ * Android, so the benchmarks run exactly this code on a plain JVM.
+ */
+public final class MassLogQueries {
+
+    // Longest text formatLog writes: date (10) + separator (3) + sign and 19 digits + point and 3 decimals
+    public static final int LOG_TEXT_CAPACITY = 40;
+
+    private MassLogQueries() {
+    }
+
+    /**
+     * Retrieves a paginated subset of logs.
+     *
+     * @param logs     The complete set of logs in display order.
+     * @param page     The current page number.
+     * @param pageSize The number of items per page.
+     * @return A view of the logs for the current page.
+     */
+    public static MassSeries.View getPaginatedLogs(MassSeries.View logs, int page, int pageSize) {
+        int start = Math.min(page * pageSize, logs.size());
+        int end = Math.min(start + pageSize, logs.size());
+        return logs.subView(start, end);
+    }
+
+    /**
+     * Determines if there are more pages of logs.
+     *
+     * @param logs     The complete set of logs in display order.
+     * @param page     The current page number.
+     * @param pageSize The number of items per page.
+     * @return True if there are more pages; false otherwise.
+     */
+    public static boolean hasNextPage(MassSeries.View logs, int page, int pageSize) {
+        return (page + 1) * pageSize < logs.size();
+    }
+
+    /**
+     * Orders loaded logs based on the specified sorting criteria. The series is
+     * already kept in date order, so this returns a view rather than a sorted copy.
+     *
+     * @param logs   The complete set of logs.
+     * @param option The sorting option (0-3).
+     * @return A view of the logs in the requested order.
+     */
+    public static MassSeries.View sortLogs(MassSeries logs, int option) {
+        return logs.view(SortOrder.fromOption(option));
+    }
+
+    /**
+     * Finds the log closest to the specified mass.
+     *
+     * @param logs The complete set of logs.
+     * @param mass The target mass.
+     * @return The closest log as a String.
+     */
+    public static String searchByMass(MassSeries logs, double mass) {
+        MassSeries.View closest = logs.nearestByMass(mass, 1);
+        return closest.size() == 0 ? "No logs found" : formatLog(closest.dayAt(0), closest.massAt(0));
+    }
+
+    /**
+     * Finds the logs closest to the specified mass.
+     *
+     * @param logs  The complete set of logs.
+     * @param mass  The target mass.
+     * @param count The number of logs to return.
+     * @return A view, in ascending mass order, of the closest logs.
+     */
+    public static MassSeries.View getNearestByMass(MassSeries logs, double mass, int count) {
+        return logs.nearestByMass(mass, count);
+    }
+
+    /**
+     * Finds the log closest to the specified date, along with the logs
+     * immediately before and after it.
+     *
+     * @param logs The complete set of logs.
+     * @param date The target date in the format "yyyy-MM-dd".
+     * @return The closest log and its neighbours as a String.
+     */
+    public static String searchByDate(MassSeries logs, String date) {
+        int day = EpochDays.tryParse(date);
+        if (day == EpochDays.INVALID) {
+            return "Invalid date, use yyyy-MM-dd";
+        }
+        int closest = logs.nearestIndex(day);
+        if (closest == -1) {
+            return "No logs found";
+        }
+
+        StringBuilder result = new StringBuilder(formatLog(logs.dayAt(closest), logs.massAt(closest)));
+        if (closest > 0) {
+            result.append(" (before: ").append(formatLog(logs.dayAt(closest - 1), logs.massAt(closest - 1))).append(")");
+        }
+        if (closest < logs.size() - 1) {
+            result.append(" (after: ").append(formatLog(logs.dayAt(closest + 1), logs.massAt(closest + 1))).append(")");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Finds the log closest to the specified date with its neighbours.
+     *
+     * @param logs The complete set of logs.
+     * @param day  The target epoch day.
+     * @return A view, in date order, of the closest log and the logs either side of it.
+     */
+    public static MassSeries.View getNearestByDate(MassSeries logs, int day) {
+        int closest = logs.nearestIndex(day);
+        if (closest == -1) {
+            return logs.slice(0, 0);
+        }
+        return logs.slice(Math.max(0, closest - 1), Math.min(logs.size(), closest + 2));
+    }
+
+    /**
+     * Formats a log for display in the format "date - mass".
+     *
+     * @param epochDay The day of the log.
+     * @param mass     The mass value.
+     * @return The formatted log.
+     */
+    public static String formatLog(int epochDay, double mass) {
+        return EpochDays.format(epochDay) + " - " + mass;
+    }
+
+    /**
+     * Writes a log into a buffer in the format "date - mass" without
+     * allocating, matching formatLog for masses with up to three decimals.
+     *
+     * @param buffer   The buffer to write to; needs LOG_TEXT_CAPACITY characters.
+     * @param epochDay The day of the log.
+     * @param mass     The mass value.
+     * @return The number of characters written.
+     */
+    public static int formatLog(char[] buffer, int epochDay, double mass) {
+        int offset = EpochDays.writeTo(buffer, 0, epochDay);
+        buffer[offset++] = ' ';
+        buffer[offset++] = '-';
+        buffer[offset++] = ' ';
+
+        long scaled = Math.round(Math.abs(mass) * 1000);
+        if (mass < 0 && scaled != 0) {
+            buffer[offset++] = '-';
+        }
+        long whole = scaled / 1000;
+        int fraction = (int) (scaled % 1000);
+
+        // Whole part, written right to left after counting its digits
+        int digits = 1;
+        for (long rest = whole / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + whole % 10);
+            whole /= 10;
+        }
+        offset += digits;
+
+        // At least one decimal, like Double.toString, without trailing zeros
+        buffer[offset++] = '.';
+        buffer[offset++] = (char) ('0' + fraction / 100);
+        if (fraction % 100 != 0) {
+            buffer[offset++] = (char) ('0' + fraction / 10 % 10);
+            if (fraction % 10 != 0) {
+                buffer[offset++] = (char) ('0' + fraction % 10);
+            }
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.masstracker;
+
+/**
+ * MassPage is one page of mass logs read from the database in display order.
+ * Its first and last entries are the keys used to seek to the neighbouring
+ * pages, so paging never needs the rest of the history.
+ */
+public class MassPage {
+
+    private final SortOrder order;
+    private final int[] days;
+    private final double[] masses;
+    private final int size;
+    private final boolean hasNext;
+    private final boolean hasPrevious;
+
+    /**
+     * Constructor for MassPage.
+     *
+     * @param order       The order the page was read in.
+     * @param days        The epoch days of the entries, in display order.
+     * @param masses      The masses of the entries, in display order.
+     * @param size        The number of entries used from the arrays.
+     * @param hasNext     True if there are entries after this page.
+     * @param hasPrevious True if there are entries before this page.
+     */
+    public MassPage(SortOrder order, int[] days, double[] masses, int size, boolean hasNext, boolean hasPrevious) {
+        this.order = order;
+        this.days = days;
+        this.masses = masses;
+        this.size = size;
+        this.hasNext = hasNext;
+        this.hasPrevious = hasPrevious;
+    }
+
+    /**
+     * @return The order the page was read in.
+     */
+    public SortOrder getOrder() {
+        return order;
+    }
+
+    /**
+     * @return The number of entries on the page.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param position The position on the page.
+     * @return The epoch day of the entry.
+     */
+    public int dayAt(int position) {
+        checkPosition(position);
+        return days[position];
+    }
+
+    /**
+     * @param position The position on the page.
+     * @return The mass of the entry.
+     */
+    public double massAt(int position) {
+        checkPosition(position);
+        return masses[position];
+    }
+
+    /**
+     * @return True if there are entries after this page.
+     */
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * @return True if there are entries before this page.
+     */
+    public boolean hasPrevious() {
+        return hasPrevious;
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.masstracker;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * MassQueryExecutor runs database work on a small, bounded pool of background
+ * threads and delivers results on the main thread. It can drop requests that
+ * a newer request has superseded (such as rapid next-page taps) and share one
+ * in-flight query between callers asking for the same thing.
+ *
+ * Every task holds DatabaseHelper's swap gate while it runs, so a restore
+ * never replaces the database file underneath a query. Work on data already
+ * in memory goes through computeLatest instead, which runs on its own thread
+ * without the gate.
+ */
+public class MassQueryExecutor {
+
+    private static final String TAG = "MassQueryExecutor";
+    private static final int THREAD_COUNT = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int QUEUE_CAPACITY = 64;
+    static final long RETRY_MILLIS = 50; // Before offering a rejected latest request again
+
+    private static MassQueryExecutor instance;
+
+    private final ThreadPoolExecutor pool;
+    private final ThreadPoolExecutor computePool;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ConcurrentHashMap<String, FutureTask<?>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Receives the result of a task on the main thread.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Slot holds the latest request of one kind. Submitting a new request to a
+     * slot cancels the previous one, and a superseded result is never delivered.
+     */
+    public static class Slot {
+        private Future<?> current;
+
+        /**
+         * Cancels the request in this slot, if any.
+         */
+        public synchronized void cancel() {
+            if (current != null) {
+                current.cancel(false);
+                current = null;
+            }
+        }
+
+        private synchronized void replace(Future<?> future) {
+            if (current != null) {
+                // Do not interrupt: a running query finishes, but its result is dropped
+                current.cancel(false);
+            }
+            current = future;
+        }
+
+        private synchronized boolean isCurrent(Future<?> future) {
+            return current == future;
+        }
+    }
+
+    /**
+     * @return The process-wide executor.
+     */
+    public static synchronized MassQueryExecutor getInstance() {
+        if (instance == null) {
+            instance = new MassQueryExecutor();
+        }
+        return instance;
+    }
+
+    private MassQueryExecutor() {
+        pool = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_CAPACITY), new DatabaseThreadFactory("mass-db-"));
+        pool.allowCoreThreadTimeOut(true);
+        // Unbounded: superseded requests are cancelled, so the queue holds little live work
+        computePool = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DatabaseThreadFactory("mass-compute-"));
+        computePool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs a task in the background.
+     *
+     * @param task The task to run.
+     * @return A future for the task's result.
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        return pool.submit(gated(task));
+    }
+
+    /**
+     * Runs a task in the background without holding the swap gate. This is
+     * for work that swaps the database file itself, such as a restore.
+     *
+     * @param task The task to run.
+     * @return A future for the task's result.
+     */
+    public <T> Future<T> submitMaintenance(Callable<T> task) {
+        return pool.submit(task);
+    }
+
+    /**
+     * Runs a task in the background, replacing the request in a slot, and
+     * delivers the result on the main thread unless it has been superseded.
+     *
+     * @param slot     The slot the request belongs to.
+     * @param task     The task to run.
+     * @param callback Receives the result on the main thread.
+     * @return A future for the task's result.
+     */
+    public <T> Future<T> submitLatest(Slot slot, Callable<T> task, Callback<T> callback) {
+        return runLatest(pool, slot, gated(task), callback);
+    }
+
+    /**
+     * Like submitLatest, for work that does not touch the database, such as
+     * diffing two pages already loaded. It runs on its own thread without the
+     * swap gate, so it never waits behind queries or a restore, and its queue
+     * is unbounded, so a request is never dropped.
+     *
+     * @param slot     The slot the request belongs to.
+     * @param task     The task to run; it must not use the database.
+     * @param callback Receives the result on the main thread.
+     * @return A future for the task's result.
+     */
+    public <T> Future<T> computeLatest(Slot slot, Callable<T> task, Callback<T> callback) {
+        return runLatest(computePool, slot, task, callback);
+    }
+
+    private <T> Future<T> runLatest(ThreadPoolExecutor executor, Slot slot, Callable<T> task, Callback<T> callback) {
+        FutureTask<T> future = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    T result = get();
+                    mainHandler.post(() -> {
+                        if (slot.isCurrent(this)) {
+                            callback.onResult(result);
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Query failed", e.getCause());
+                }
+            }
+        };
+        slot.replace(future);
+        execute(executor, slot, future);
+        return future;
+    }
+
+    /**
+     * Queues the latest request of a slot. The slot has already dropped the
+     * request it replaced, so a full queue must not drop this one too, or the
+     * slot would never get a result; it is offered again shortly instead,
+     * for as long as it is still the latest.
+     */
+    private void execute(ThreadPoolExecutor executor, Slot slot, FutureTask<?> future) {
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Query queue full, retrying request", e);
+            mainHandler.postDelayed(() -> {
+                if (slot.isCurrent(future) && !future.isDone()) {
+                    execute(executor, slot, future);
+                }
+            }, RETRY_MILLIS);
+        }
+    }
+
+    /**
+     * Runs a task, sharing it with any identical request already in flight.
+     * If the shared task has not started yet it runs on the calling thread, so
+     * pool threads never block waiting on queued work.
+     *
+     * @param key  Identifies identical requests, for example "logs:" + userId.
+     * @param task The task to run.
+     * @return The task's result.
+     * @throws Exception If the task fails.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T callShared(String key, Callable<T> task) throws Exception {
+        FutureTask<T> created = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                inFlight.remove(key, this);
+            }
+        };
+        FutureTask<T> shared = (FutureTask<T>) inFlight.putIfAbsent(key, created);
+        if (shared == null) {
+            shared = created;
+        }
+        shared.run(); // No-op if another thread is already running it
+        try {
+            return shared.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Wraps a task so it holds the swap gate while it runs.
+     */
+    private static <T> Callable<T> gated(Callable<T> task) {
+        return () -> {
+            Lock gate = DatabaseHelper.swapGate();
+            gate.lock();
+            try {
+                return task.call();
+            } finally {
+                gate.unlock();
+            }
+        };
+    }
+
+    /**
+     * Creates low-priority daemon threads so database work does not compete with rendering.
+     */
+    private static class DatabaseThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DatabaseThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
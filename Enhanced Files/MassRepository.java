@@ -1,104 +1,438 @@
 package com.example.masstracker;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 
+import androidx.lifecycle.LiveData;
+
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
- * MassRepository manages all interactions with the database.
+ * MassRepository manages all interactions with the database. Every write
+ * reports the tables it touched to InvalidationTracker, so observable
+ * queries refresh themselves instead of callers re-querying by hand.
  */
 public class MassRepository {
+
+    // Queries are fixed SQL text with bound arguments, so each read connection
+    // compiles every one of them once and then reuses it from its statement cache.
+    // Days and masses are stored as integers; they are converted only here.
+    private static final String[] ROLLUP_SQL = new String[MassRollup.Bucket.values().length];
+    static final String[] PAGE_SQL = new String[8];
+
+    // A write to the mass table also updates the rollups and the change log through triggers
+    static final String[] MASS_TABLES =
+            {DatabaseHelper.TABLE_MASS, DatabaseHelper.TABLE_ROLLUP, DatabaseHelper.TABLE_CHANGE_LOG};
+
+    static {
+        for (MassRollup.Bucket bucket : MassRollup.Bucket.values()) {
+            ROLLUP_SQL[bucket.ordinal()] = rollupSql(bucket);
+        }
+        for (int i = 0; i < PAGE_SQL.length; i++) {
+            PAGE_SQL[i] = pageSql((i & 4) != 0, (i & 2) != 0, (i & 1) != 0);
+        }
+    }
+
     private final DatabaseHelper dbHelper;
 
+    // Single logs are read and written through the store; pages and rollups
+    // use the mass table's index and triggers directly
+    private final MassStore store;
+    private final MassSeriesCache cache = MassSeriesCache.getInstance();
+    private final QueryMetrics metrics = QueryMetrics.getInstance();
+    private final InvalidationTracker tracker = InvalidationTracker.getInstance();
+
+    private boolean closed;
+
     /**
-     * Constructor initializes the DatabaseHelper.
+     * Constructor takes a reference to the shared DatabaseHelper. Call close
+     * when the repository is no longer needed.
      *
      * @param context Application context.
      */
     public MassRepository(Context context) {
-        dbHelper = new DatabaseHelper(context);
+        dbHelper = DatabaseManager.acquire(context);
+        store = new SqliteMassStore(dbHelper);
     }
 
     /**
-     * Fetches all mass logs for a specific user.
-     *
-     * @param userId The ID of the user.
-     * @return A list of mass log strings in the format "date - mass".
+     * Releases this repository's reference to the shared DatabaseHelper. The
+     * connections close when no repository holds one. Calling close again has
+     * no effect.
      */
-    public List<String> getMassLogs(int userId) {
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
-        List<String> logs = new ArrayList<>();
-
-        Cursor cursor = db.query(DatabaseHelper.TABLE_MASS,
-                new String[]{DatabaseHelper.COLUMN_DATE, DatabaseHelper.COLUMN_MASS},
-                DatabaseHelper.COLUMN_USER_ID_FK + "=?",
-                new String[]{String.valueOf(userId)},
-                null, null, null);
-
-        if (cursor != null && cursor.moveToFirst()) {
-            do {
-                String date = cursor.getString(cursor.getColumnIndex(DatabaseHelper.COLUMN_DATE));
-                double mass = cursor.getDouble(cursor.getColumnIndex(DatabaseHelper.COLUMN_MASS));
-                logs.add(date + " - " + mass);
-            } while (cursor.moveToNext());
-            cursor.close();
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            DatabaseManager.release(dbHelper);
         }
-        return logs;
     }
 
     /**
-     * Adds a new mass log for the user.
+     * Adds a new mass log for the user. A user has one log per day, so this
+     * replaces any log already on that date.
      *
      * @param userId The user ID.
-     * @param date   The date of the log.
+     * @param date   The date of the log, as "yyyy-MM-dd".
      * @param mass   The mass value.
      * @return True if the log was added successfully, otherwise false.
      */
     public boolean addMassLog(int userId, String date, double mass) {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(DatabaseHelper.COLUMN_USER_ID_FK, userId);
-        values.put(DatabaseHelper.COLUMN_DATE, date);
-        values.put(DatabaseHelper.COLUMN_MASS, mass);
+        int day = EpochDays.tryParse(date);
+        if (day == EpochDays.INVALID) {
+            return false;
+        }
+        long grams = MassGrams.of(mass);
+        try {
+            store.append(userId, day, grams);
+        } catch (IOException | SQLException e) {
+            return false;
+        }
+        cache.onPut(userId, day, MassGrams.toMass(grams)); // As it will read back
+        tracker.notifyChanged(MASS_TABLES);
+        return true;
+    }
 
-        long result = db.insert(DatabaseHelper.TABLE_MASS, null, values);
-        return result != -1;
+    /**
+     * Deletes a user's mass log on a date.
+     *
+     * @param userId The user ID.
+     * @param date   The date of the log, as "yyyy-MM-dd".
+     * @return True if a log was deleted, otherwise false.
+     */
+    public boolean deleteMassLog(int userId, String date) {
+        int day = EpochDays.tryParse(date);
+        if (day == EpochDays.INVALID) {
+            return false;
+        }
+        boolean deleted;
+        try {
+            deleted = store.delete(userId, day);
+        } catch (IOException | SQLException e) {
+            return false;
+        }
+        if (deleted) {
+            cache.onRemove(userId, day);
+            tracker.notifyChanged(MASS_TABLES);
+        }
+        return deleted;
     }
 
     /**
-     * Retrieves all mass logs for a specific user.
+     * Bulk-imports "date, mass" rows from delimited text, such as a scale's CSV
+     * export. Rows are parsed on a worker thread and inserted in chunks of
+     * chunkSize per transaction. This blocks until the import finishes, so it
+     * must be called off the UI thread.
+     *
+     * @param userId    The user ID.
+     * @param reader    The delimited text; it is closed when the import ends.
+     * @param delimiter The field separator, for example ',' or ';'.
+     * @param chunkSize The number of rows committed per transaction.
+     * @param listener  Receives progress after each chunk, or null.
+     * @return A summary of the import.
+     * @throws IOException If reading the input fails.
+     */
+    public MassImporter.Result importMassLogs(int userId, Reader reader, char delimiter, int chunkSize,
+                                              MassImporter.ProgressListener listener) throws IOException {
+        try {
+            return new MassImporter(dbHelper, chunkSize, delimiter).importLogs(userId, reader, listener);
+        } finally {
+            cache.invalidate(userId); // Even a failed import may have committed some chunks
+            tracker.notifyChanged(MASS_TABLES);
+        }
+    }
+
+    /**
+     * Retrieves all mass logs for a specific user. The series is served from
+     * MassSeriesCache when cached and is shared with other callers, so
+     * synchronize on it while reading it.
      *
      * @param userId The ID of the user whose mass logs are being retrieved.
-     * @return A HashMap where the keys are dates (String) and the values are mass values (Double).
+     * @return A MassSeries of the user's logs sorted by date.
+     */
+    public MassSeries getAllMassLogs(int userId) {
+        MassSeries cached = cache.get(userId);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = cache.stamp();
+        long start = System.nanoTime();
+        MassSeries massLogs = new MassSeries();
+        try {
+            // Logs arrive in date order, so each one is appended to the series
+            store.scan(userId, Integer.MIN_VALUE, Integer.MAX_VALUE,
+                    (day, grams) -> massLogs.put(day, MassGrams.toMass(grams)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read mass logs", e);
+        }
+        metrics.record("mass.load", start, massLogs.size(), massLogs.sizeInBytes());
+
+        cache.put(userId, massLogs, stamp);
+        return massLogs;
+    }
+
+    /**
+     * Observes a user's rollups over a date range. The buckets are re-read
+     * whenever the rollup table changes while the result is observed.
+     *
+     * @param userId    The ID of the user.
+     * @param fromDay   The first epoch day of the range.
+     * @param toDay     The last epoch day of the range.
+     * @param maxPoints The most buckets wanted, for example the width of a chart.
+     * @return The buckets overlapping the range, oldest first, kept up to date.
      */
-    public HashMap<String, Double> getAllMassLogs(int userId) {
-        HashMap<String, Double> massLogs = new HashMap<>();
+    public LiveData<List<MassRollup>> observeRollups(int userId, int fromDay, int toDay, int maxPoints) {
+        return observe(() -> getRollups(userId, fromDay, toDay, maxPoints), DatabaseHelper.TABLE_ROLLUP);
+    }
+
+    /**
+     * Observes the result of a query against this repository. The query runs
+     * on MassQueryExecutor when first observed and again after any write to
+     * the tables it reads.
+     *
+     * @param query  The query, for example a call to getFirstPage.
+     * @param tables The tables the query reads.
+     * @return The query's result, kept up to date.
+     */
+    public <T> LiveQuery<T> observe(Callable<T> query, String... tables) {
+        return new LiveQuery<>(tracker, query, tables);
+    }
+
+    /**
+     * Retrieves a user's mass statistics over a date range from the rollup
+     * table, as at most about maxPoints daily, weekly or monthly buckets. The
+     * buckets are maintained on every write, so this reads a handful of rows
+     * instead of scanning and aggregating the raw logs.
+     *
+     * @param userId    The ID of the user.
+     * @param fromDay   The first epoch day of the range.
+     * @param toDay     The last epoch day of the range.
+     * @param maxPoints The most buckets wanted, for example the width of a chart.
+     * @return The buckets overlapping the range, oldest first.
+     */
+    public List<MassRollup> getRollups(int userId, int fromDay, int toDay, int maxPoints) {
+        List<MassRollup> rollups = new ArrayList<>();
+        if (toDay < fromDay) {
+            return rollups;
+        }
+        MassRollup.Bucket bucket = MassRollup.Bucket.forRange((long) toDay - fromDay + 1, maxPoints);
+        String sql = ROLLUP_SQL[bucket.ordinal()];
+        String[] args = {String.valueOf(userId), bucket.getCode(), String.valueOf(fromDay), String.valueOf(toDay)};
         SQLiteDatabase db = dbHelper.getReadableDatabase();
+        long start = System.nanoTime();
+        try (Cursor cursor = db.rawQuery(sql, args)) {
+            int startDay = cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_BUCKET_START);
+            int count = cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_COUNT);
+            int min = cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_MIN_MASS);
+            int max = cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_MAX_MASS);
+            int sum = cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_SUM_MASS);
+            int lastDay = cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_LAST_DAY);
+            int lastMass = cursor.getColumnIndexOrThrow(DatabaseHelper.COLUMN_LAST_MASS);
+            while (cursor.moveToNext()) {
+                rollups.add(new MassRollup(bucket,
+                        cursor.getInt(startDay),
+                        cursor.getInt(count),
+                        MassGrams.toMass(cursor.getLong(min)),
+                        MassGrams.toMass(cursor.getLong(max)),
+                        MassGrams.toMass(cursor.getLong(sum)),
+                        cursor.getInt(lastDay),
+                        MassGrams.toMass(cursor.getLong(lastMass))));
+            }
+        }
+        metrics.record("mass.rollups", start, rollups.size(), (long) rollups.size() * MassRollup.SIZE_BYTES,
+                db, sql, args);
+        return rollups;
+    }
 
-        // Query the database to fetch mass logs for the specified user
-        Cursor cursor = db.query(
-                DatabaseHelper.TABLE_MASS,
-                new String[]{DatabaseHelper.COLUMN_DATE, DatabaseHelper.COLUMN_MASS},
-                DatabaseHelper.COLUMN_USER_ID_FK + "=?",
-                new String[]{String.valueOf(userId)},
-                null, null, null
-        );
-
-        // Populate the HashMap with data from the database
-        if (cursor != null && cursor.moveToFirst()) {
-            do {
-                String date = cursor.getString(cursor.getColumnIndex(DatabaseHelper.COLUMN_DATE));
-                double mass = cursor.getDouble(cursor.getColumnIndex(DatabaseHelper.COLUMN_MASS));
-                massLogs.put(date, mass);
-            } while (cursor.moveToNext());
-            cursor.close();
+    /**
+     * Opens the database, creating or upgrading the schema if needed, so the
+     * first query after a cold start does not pay for it. Must be called on a
+     * background thread.
+     */
+    public void warmUp() {
+        long start = System.nanoTime();
+        dbHelper.getWritableDatabase();
+        metrics.record("db.open", start, 0, 0);
+    }
+
+    /**
+     * Re-reads a page that may be out of date, such as one restored from a
+     * DashboardSnapshot. The page starts at the same entry if it still
+     * exists, otherwise at the entry that now follows its predecessor.
+     *
+     * @param userId   The ID of the user.
+     * @param page     The page to re-read.
+     * @param pageSize The number of logs per page.
+     * @return The current contents of the page.
+     */
+    public MassPage reloadPage(int userId, MassPage page, int pageSize) {
+        if (page.size() == 0 || !page.hasPrevious()) {
+            return getFirstPage(userId, page.getOrder(), pageSize);
+        }
+        // Seek back one entry, then read forward from it, so both reads stay keyset seeks
+        MassPage before = queryPage(userId, page.getOrder(), keyOf(page, 0), false, 1);
+        if (before.size() == 0) {
+            return getFirstPage(userId, page.getOrder(), pageSize);
         }
+        return queryPage(userId, page.getOrder(), keyOf(before, 0), true, pageSize);
+    }
 
-        return massLogs;
+    /**
+     * Fetches the first page of a user's mass logs in the given order.
+     *
+     * @param userId   The ID of the user.
+     * @param order    The order to read the logs in.
+     * @param pageSize The number of logs per page.
+     * @return The first page of logs.
+     */
+    public MassPage getFirstPage(int userId, SortOrder order, int pageSize) {
+        return queryPage(userId, order, null, true, pageSize);
+    }
+
+    /**
+     * Fetches the page after the given one by seeking past its last entry.
+     *
+     * @param userId   The ID of the user.
+     * @param page     The page currently displayed.
+     * @param pageSize The number of logs per page.
+     * @return The next page of logs.
+     */
+    public MassPage getNextPage(int userId, MassPage page, int pageSize) {
+        if (page.size() == 0) {
+            return getFirstPage(userId, page.getOrder(), pageSize);
+        }
+        int last = page.size() - 1;
+        return queryPage(userId, page.getOrder(), keyOf(page, last), true, pageSize);
+    }
+
+    /**
+     * Fetches the page before the given one by seeking back from its first entry.
+     *
+     * @param userId   The ID of the user.
+     * @param page     The page currently displayed.
+     * @param pageSize The number of logs per page.
+     * @return The previous page of logs.
+     */
+    public MassPage getPreviousPage(int userId, MassPage page, int pageSize) {
+        if (page.size() == 0) {
+            return getFirstPage(userId, page.getOrder(), pageSize);
+        }
+        MassPage previous = queryPage(userId, page.getOrder(), keyOf(page, 0), false, pageSize);
+        // Fewer rows than a page means we reached the start, so show a full first page instead
+        return previous.size() < pageSize ? getFirstPage(userId, page.getOrder(), pageSize) : previous;
+    }
+
+    /**
+     * Builds the seek key (day, mass_g) of an entry on a page.
+     */
+    private static String[] keyOf(MassPage page, int position) {
+        return new String[]{String.valueOf(page.dayAt(position)), String.valueOf(MassGrams.of(page.massAt(position)))};
+    }
+
+    /**
+     * Builds the rollup query for a bucket size. The bucket holding fromDay
+     * may start before it, so the seek starts from that bucket's start.
+     */
+    private static String rollupSql(MassRollup.Bucket bucket) {
+        return "SELECT " + DatabaseHelper.COLUMN_BUCKET_START + ", " + DatabaseHelper.COLUMN_COUNT + ", " +
+                DatabaseHelper.COLUMN_MIN_MASS + ", " + DatabaseHelper.COLUMN_MAX_MASS + ", " +
+                DatabaseHelper.COLUMN_SUM_MASS + ", " + DatabaseHelper.COLUMN_LAST_DAY + ", " +
+                DatabaseHelper.COLUMN_LAST_MASS +
+                " FROM " + DatabaseHelper.TABLE_ROLLUP +
+                " WHERE " + DatabaseHelper.COLUMN_USER_ID_FK + "=?1 AND " + DatabaseHelper.COLUMN_BUCKET + "=?2" +
+                " AND " + DatabaseHelper.COLUMN_BUCKET_START + ">=" + DatabaseHelper.rollupStartExpression(bucket, "?3") +
+                " AND " + DatabaseHelper.COLUMN_BUCKET_START + "<=?4" +
+                " ORDER BY " + DatabaseHelper.COLUMN_BUCKET_START + " ASC";
+    }
+
+    /**
+     * Builds a page query. Date orders seek on the primary key (user_id_fk, day)
+     * and mass orders on the covering index (user_id_fk, mass_g, day).
+     *
+     * @param byMass    True to order by mass, then date.
+     * @param ascending The direction to walk the index in.
+     * @param seek      True to start after an anchor key instead of at the beginning.
+     * @return The SQL, whose last argument is the row limit.
+     */
+    private static String pageSql(boolean byMass, boolean ascending, boolean seek) {
+        String direction = ascending ? " ASC" : " DESC";
+        String after = ascending ? ">" : "<";
+        String sql = "SELECT " + DatabaseHelper.COLUMN_DAY + ", " + DatabaseHelper.COLUMN_MASS_GRAMS +
+                " FROM " + DatabaseHelper.TABLE_MASS +
+                " WHERE " + DatabaseHelper.COLUMN_USER_ID_FK + "=?";
+        if (seek && byMass) {
+            // Range on mass so the index seek starts at the anchor, then skip earlier days with an equal mass
+            sql += " AND " + DatabaseHelper.COLUMN_MASS_GRAMS + after + "=?" +
+                    " AND (" + DatabaseHelper.COLUMN_MASS_GRAMS + after + "? OR " + DatabaseHelper.COLUMN_DAY + after + "?)";
+        } else if (seek) {
+            sql += " AND " + DatabaseHelper.COLUMN_DAY + after + "?";
+        }
+        sql += byMass
+                ? " ORDER BY " + DatabaseHelper.COLUMN_MASS_GRAMS + direction + ", " + DatabaseHelper.COLUMN_DAY + direction
+                : " ORDER BY " + DatabaseHelper.COLUMN_DAY + direction;
+        return sql + " LIMIT ?";
+    }
+
+    /**
+     * Reads one page using keyset pagination. Date orders seek on the
+     * primary key (user_id_fk, day) and mass orders on the covering index
+     * (user_id_fk, mass_g, day), so SQLite walks the B-tree from the key and
+     * stops after pageSize + 1 rows without sorting. The extra row tells
+     * whether more pages exist.
+     *
+     * @param userId   The ID of the user.
+     * @param order    The display order of the page.
+     * @param anchor   The (day, mass_g) key to seek from, or null to start at the beginning.
+     * @param forward  True to read entries after the anchor, false to read entries before it.
+     * @param pageSize The number of logs per page.
+     * @return The page, in display order.
+     */
+    private MassPage queryPage(int userId, SortOrder order, String[] anchor, boolean forward, int pageSize) {
+        boolean byMass = order == SortOrder.MASS_ASCENDING || order == SortOrder.MASS_DESCENDING;
+        boolean displayAscending = order == SortOrder.DATE_ASCENDING || order == SortOrder.MASS_ASCENDING;
+        // Reading backwards walks the index in the opposite direction to the display order
+        boolean ascending = displayAscending == forward;
+
+        String user = String.valueOf(userId);
+        String limit = String.valueOf(pageSize + 1);
+        String[] selectionArgs;
+        if (anchor != null && byMass) {
+            selectionArgs = new String[]{user, anchor[1], anchor[1], anchor[0], limit};
+        } else if (anchor != null) {
+            selectionArgs = new String[]{user, anchor[0], limit};
+        } else {
+            selectionArgs = new String[]{user, limit};
+        }
+        String sql = PAGE_SQL[(byMass ? 4 : 0) | (ascending ? 2 : 0) | (anchor != null ? 1 : 0)];
+
+        int[] days = new int[pageSize + 1];
+        double[] masses = new double[pageSize + 1];
+        int count;
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        long start = System.nanoTime();
+        count = CursorRows.readDayMass(db.rawQuery(sql, selectionArgs), days, masses);
+        metrics.record("mass.page", start, count, (long) days.length * (Integer.BYTES + Double.BYTES),
+                db, sql, selectionArgs);
+
+        boolean more = count > pageSize;
+        count = Math.min(count, pageSize);
+        if (!forward) {
+            // Rows were read backwards from the anchor, so flip them into display order
+            for (int i = 0, j = count - 1; i < j; i++, j--) {
+                int day = days[i];
+                days[i] = days[j];
+                days[j] = day;
+                double mass = masses[i];
+                masses[i] = masses[j];
+                masses[j] = mass;
+            }
+        }
+        boolean seeked = anchor != null;
+        return new MassPage(order, days, masses, count, forward ? more : seeked, forward ? seeked : more);
     }
 }
@@ -0,0 +1,124 @@
+package com.example.masstracker;
+
+/**
+ * MassRollup is one pre-aggregated time bucket of a user's mass logs, read
+ * from the rollup table that DatabaseHelper keeps up to date on every write.
+ */
+public class MassRollup {
+
+    /**
+     * The bucket sizes stored in the rollup table, from finest to coarsest.
+     */
+    public enum Bucket {
+        DAY("D", 1),
+        WEEK("W", 7),
+        MONTH("M", 28);
+
+        private final String code;
+        private final int minDays; // The shortest a bucket can be, so ranges are never under-counted
+
+        Bucket(String code, int minDays) {
+            this.code = code;
+            this.minDays = minDays;
+        }
+
+        /**
+         * @return The value stored in the rollup table's bucket column.
+         */
+        public String getCode() {
+            return code;
+        }
+
+        /**
+         * Picks the finest bucket that covers a range in at most maxPoints
+         * buckets, so long ranges read few, coarse rows and short ranges keep
+         * their detail. If even months need more, months are picked anyway.
+         *
+         * @param days      The number of days in the range.
+         * @param maxPoints The most buckets the caller wants back.
+         * @return The bucket to read.
+         */
+        public static Bucket forRange(long days, int maxPoints) {
+            for (Bucket bucket : values()) {
+                // A range can end partway into a bucket at each end, around whole buckets
+                long touched = days <= 1 ? 1 : (days - 2) / bucket.minDays + 2;
+                if (touched <= maxPoints) {
+                    return bucket;
+                }
+            }
+            return MONTH;
+        }
+    }
+
+    // Object header, four ints and references, four doubles and a list slot
+    static final int SIZE_BYTES = 68;
+
+    private final Bucket bucket;
+    private final int startDay;
+    private final int count;
+    private final double minMass;
+    private final double maxMass;
+    private final double sumMass;
+    private final int lastDay;
+    private final double lastMass;
+
+    /**
+     * Constructor for MassRollup.
+     *
+     * @param bucket   The bucket size.
+     * @param startDay The epoch day the bucket starts on.
+     * @param count    The number of logs in the bucket.
+     * @param minMass  The lowest mass in the bucket.
+     * @param maxMass  The highest mass in the bucket.
+     * @param sumMass  The sum of the masses in the bucket.
+     * @param lastDay  The epoch day of the latest log in the bucket.
+     * @param lastMass The mass of the latest log in the bucket.
+     */
+    public MassRollup(Bucket bucket, int startDay, int count, double minMass, double maxMass,
+                      double sumMass, int lastDay, double lastMass) {
+        this.bucket = bucket;
+        this.startDay = startDay;
+        this.count = count;
+        this.minMass = minMass;
+        this.maxMass = maxMass;
+        this.sumMass = sumMass;
+        this.lastDay = lastDay;
+        this.lastMass = lastMass;
+    }
+
+    public Bucket getBucket() {
+        return bucket;
+    }
+
+    public int getStartDay() {
+        return startDay;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getMinMass() {
+        return minMass;
+    }
+
+    public double getMaxMass() {
+        return maxMass;
+    }
+
+    public double getSumMass() {
+        return sumMass;
+    }
+
+    public double getAverageMass() {
+        return count == 0 ? 0 : sumMass / count;
+    }
+
+    public int getLastDay() {
+        return lastDay;
+    }
+
+    public double getLastMass() {
+        return lastMass;
+    }
+}
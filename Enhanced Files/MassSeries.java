@@ -0,0 +1,463 @@
+package com.example.masstracker;
+
+import java.util.Arrays;
+
+/**
+ * MassSeries holds one user's mass logs as parallel primitive arrays of epoch
+ * day and mass, kept sorted by date with at most one reading per day. Each
+ * entry costs 12 bytes, date lookups are binary searches and ordered or
+ * date-bounded ranges are exposed as views over the same arrays.
+ *
+ * A secondary index orders the same entries by mass (ties by date). It is
+ * built the first time a mass ordering or search is requested and is then
+ * kept up to date by put() and remove() rather than rebuilt.
+ */
+public class MassSeries {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // An int day and a double mass per slot, and the object and array headers
+    private static final int ENTRY_BYTES = 12;
+    private static final int OVERHEAD_BYTES = 96;
+
+    private int[] days;
+    private double[] masses;
+    private int size;
+
+    // Secondary index: the same entries ordered by (mass, day)
+    private int[] massOrderDays;
+    private double[] massOrderMasses;
+    private boolean massIndexed;
+
+    /**
+     * Creates an empty series.
+     */
+    public MassSeries() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty series sized for the expected number of entries.
+     *
+     * @param capacity The initial capacity.
+     */
+    public MassSeries(int capacity) {
+        capacity = Math.max(capacity, 1);
+        days = new int[capacity];
+        masses = new double[capacity];
+    }
+
+    /**
+     * @return The number of entries in the series.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Estimates the heap the series holds, including spare capacity and the
+     * mass index once built.
+     *
+     * @return The approximate size in bytes.
+     */
+    public long sizeInBytes() {
+        long bytes = OVERHEAD_BYTES + (long) days.length * ENTRY_BYTES;
+        if (massIndexed) {
+            bytes += (long) massOrderDays.length * ENTRY_BYTES;
+        }
+        return bytes;
+    }
+
+    /**
+     * @param index The position in date order.
+     * @return The epoch day of the entry.
+     */
+    public int dayAt(int index) {
+        checkIndex(index);
+        return days[index];
+    }
+
+    /**
+     * @param index The position in date order.
+     * @return The mass of the entry.
+     */
+    public double massAt(int index) {
+        checkIndex(index);
+        return masses[index];
+    }
+
+    /**
+     * Finds the entry for a day.
+     *
+     * @param epochDay The day to look up.
+     * @return The index of the entry, or (-(insertion point) - 1) if there is none.
+     */
+    public int indexOf(int epochDay) {
+        return Arrays.binarySearch(days, 0, size, epochDay);
+    }
+
+    /**
+     * Finds the first entry on or after a day.
+     *
+     * @param epochDay The day to look up.
+     * @return The index of the entry, or size() if every entry is earlier.
+     */
+    public int ceilingIndex(int epochDay) {
+        int index = indexOf(epochDay);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Finds the entry whose date is closest to a day. When two entries are
+     * equally close, the earlier one is returned.
+     *
+     * @param epochDay The day to look up.
+     * @return The index of the closest entry, or -1 if the series is empty.
+     */
+    public int nearestIndex(int epochDay) {
+        if (size == 0) {
+            return -1;
+        }
+        int after = ceilingIndex(epochDay);
+        if (after == size) {
+            return size - 1;
+        }
+        if (after == 0 || days[after] == epochDay) {
+            return after;
+        }
+        // Widen to long so distances between extreme days cannot overflow
+        long beforeDistance = (long) epochDay - days[after - 1];
+        long afterDistance = (long) days[after] - epochDay;
+        return beforeDistance <= afterDistance ? after - 1 : after;
+    }
+
+    /**
+     * Returns the entries at the given positions in date order without copying.
+     *
+     * @param from The first index, inclusive.
+     * @param to   The last index, exclusive.
+     * @return A view over this series.
+     */
+    public View slice(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") of " + size);
+        }
+        return new View(this, SortOrder.DATE_ASCENDING, from, to);
+    }
+
+    /**
+     * Adds a reading, replacing any existing reading for the same day.
+     * Appending in date order is O(1) amortised.
+     *
+     * @param epochDay The day of the reading.
+     * @param mass     The mass value.
+     */
+    public void put(int epochDay, double mass) {
+        int index = size == 0 || days[size - 1] < epochDay ? -size - 1 : indexOf(epochDay);
+        if (index >= 0) {
+            if (massIndexed) {
+                removeFromMassIndex(epochDay, masses[index]);
+            }
+            masses[index] = mass;
+        } else {
+            index = -index - 1;
+            ensureCapacity(size + 1);
+            System.arraycopy(days, index, days, index + 1, size - index);
+            System.arraycopy(masses, index, masses, index + 1, size - index);
+            days[index] = epochDay;
+            masses[index] = mass;
+            size++;
+        }
+        if (massIndexed) {
+            insertIntoMassIndex(epochDay, mass);
+        }
+    }
+
+    /**
+     * Removes the reading for a day.
+     *
+     * @param epochDay The day of the reading.
+     * @return True if a reading was removed.
+     */
+    public boolean remove(int epochDay) {
+        int index = indexOf(epochDay);
+        if (index < 0) {
+            return false;
+        }
+        if (massIndexed) {
+            removeFromMassIndex(epochDay, masses[index]);
+        }
+        System.arraycopy(days, index + 1, days, index, size - index - 1);
+        System.arraycopy(masses, index + 1, masses, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns every entry in the requested order.
+     *
+     * @param order The ordering of the view.
+     * @return A view over this series.
+     */
+    public View view(SortOrder order) {
+        if (order == SortOrder.MASS_ASCENDING || order == SortOrder.MASS_DESCENDING) {
+            ensureMassIndex();
+        }
+        return new View(this, order, 0, size);
+    }
+
+    /**
+     * Finds the readings closest to a mass in O(log n + count). The closest
+     * readings to a value are always adjacent in mass order, so the result is
+     * a window of the mass index rather than a copy.
+     *
+     * @param mass  The target mass.
+     * @param count The number of readings to return.
+     * @return A view, in ascending mass order, of the closest readings.
+     */
+    public View nearestByMass(double mass, int count) {
+        ensureMassIndex();
+        count = Math.max(0, Math.min(count, size));
+
+        // Start from the first reading at or above the target and widen towards the closer side
+        int hi = massLowerBound(mass);
+        int lo = hi;
+        while (hi - lo < count) {
+            if (lo == 0) {
+                hi++;
+            } else if (hi == size) {
+                lo--;
+            } else if (mass - massOrderMasses[lo - 1] <= massOrderMasses[hi] - mass) {
+                lo--;
+            } else {
+                hi++;
+            }
+        }
+        return new View(this, SortOrder.MASS_ASCENDING, lo, hi);
+    }
+
+    /**
+     * Returns the entries between two days, inclusive, in date order.
+     *
+     * @param fromDay The first day of the range.
+     * @param toDay   The last day of the range.
+     * @return A view over this series.
+     */
+    public View range(int fromDay, int toDay) {
+        int from = ceilingIndex(fromDay);
+        int to = toDay == Integer.MAX_VALUE ? size : ceilingIndex(toDay + 1);
+        return new View(this, SortOrder.DATE_ASCENDING, from, Math.max(from, to));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > days.length) {
+            int newCapacity = Math.max(capacity, days.length + (days.length >> 1));
+            days = Arrays.copyOf(days, newCapacity);
+            masses = Arrays.copyOf(masses, newCapacity);
+            if (massIndexed) {
+                massOrderDays = Arrays.copyOf(massOrderDays, newCapacity);
+                massOrderMasses = Arrays.copyOf(massOrderMasses, newCapacity);
+            }
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Builds the mass index the first time it is needed.
+     */
+    private void ensureMassIndex() {
+        if (massIndexed) {
+            return;
+        }
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // Stable merge sort of indices by mass, so equal masses stay in date order
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width <<= 1) {
+            for (int lo = 0; lo < size - width; lo += width << 1) {
+                int mid = lo + width;
+                int hi = Math.min(lo + (width << 1), size);
+                int left = lo, right = mid, out = lo;
+                while (left < mid && right < hi) {
+                    buffer[out++] = masses[order[right]] < masses[order[left]] ? order[right++] : order[left++];
+                }
+                while (left < mid) {
+                    buffer[out++] = order[left++];
+                }
+                while (right < hi) {
+                    buffer[out++] = order[right++];
+                }
+                System.arraycopy(buffer, lo, order, lo, hi - lo);
+            }
+        }
+        massOrderDays = new int[days.length];
+        massOrderMasses = new double[days.length];
+        for (int i = 0; i < size; i++) {
+            massOrderDays[i] = days[order[i]];
+            massOrderMasses[i] = masses[order[i]];
+        }
+        massIndexed = true;
+    }
+
+    /**
+     * Inserts an entry into the mass index. Called after the entry has been
+     * counted in size, so the index currently holds size - 1 entries.
+     */
+    private void insertIntoMassIndex(int epochDay, double mass) {
+        int count = size - 1;
+        int position = -massIndexOf(epochDay, mass, count) - 1;
+        System.arraycopy(massOrderDays, position, massOrderDays, position + 1, count - position);
+        System.arraycopy(massOrderMasses, position, massOrderMasses, position + 1, count - position);
+        massOrderDays[position] = epochDay;
+        massOrderMasses[position] = mass;
+    }
+
+    /**
+     * Removes an entry from the mass index while size still counts it.
+     */
+    private void removeFromMassIndex(int epochDay, double mass) {
+        int position = massIndexOf(epochDay, mass, size);
+        System.arraycopy(massOrderDays, position + 1, massOrderDays, position, size - position - 1);
+        System.arraycopy(massOrderMasses, position + 1, massOrderMasses, position, size - position - 1);
+    }
+
+    /**
+     * Binary searches the first count entries of the mass index for (mass, day).
+     *
+     * @return The position of the entry, or (-(insertion point) - 1) if it is absent.
+     */
+    private int massIndexOf(int epochDay, double mass, int count) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Double.compare(massOrderMasses[mid], mass);
+            if (cmp == 0) {
+                cmp = Integer.compare(massOrderDays[mid], epochDay);
+            }
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -lo - 1;
+    }
+
+    /**
+     * @return The position of the first entry in the mass index whose mass is not below the target.
+     */
+    private int massLowerBound(double mass) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (massOrderMasses[mid] < mass) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * View is an ordered window over a MassSeries. It reads through to the
+     * series' arrays, so creating views and sub-views never copies entries.
+     * A view should not be used after the series it was taken from changes.
+     */
+    public static class View {
+        private final MassSeries series;
+        private final SortOrder order;
+        private final int from;
+        private final int to;
+
+        private View(MassSeries series, SortOrder order, int from, int to) {
+            this.series = series;
+            this.order = order;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return The number of entries in the view.
+         */
+        public int size() {
+            return to - from;
+        }
+
+        /**
+         * @return The ordering of the view.
+         */
+        public SortOrder getOrder() {
+            return order;
+        }
+
+        /**
+         * @param position The position within the view.
+         * @return The epoch day of the entry.
+         */
+        public int dayAt(int position) {
+            int index = indexFor(position);
+            switch (order) {
+                case MASS_ASCENDING:
+                case MASS_DESCENDING:
+                    return series.massOrderDays[index];
+                default:
+                    return series.days[index];
+            }
+        }
+
+        /**
+         * @param position The position within the view.
+         * @return The mass of the entry.
+         */
+        public double massAt(int position) {
+            int index = indexFor(position);
+            switch (order) {
+                case MASS_ASCENDING:
+                case MASS_DESCENDING:
+                    return series.massOrderMasses[index];
+                default:
+                    return series.masses[index];
+            }
+        }
+
+        /**
+         * Returns a window of this view without copying.
+         *
+         * @param start The first position, inclusive.
+         * @param end   The last position, exclusive.
+         * @return The sub-view.
+         */
+        public View subView(int start, int end) {
+            if (start < 0 || end > size() || start > end) {
+                throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") of " + size());
+            }
+            return new View(series, order, from + start, from + end);
+        }
+
+        /**
+         * Maps a position in the view to an index in the backing arrays.
+         */
+        private int indexFor(int position) {
+            if (position < 0 || position >= size()) {
+                throw new IndexOutOfBoundsException("Position: " + position + ", Size: " + size());
+            }
+            int rank = from + position;
+            if (order == SortOrder.DATE_DESCENDING || order == SortOrder.MASS_DESCENDING) {
+                return series.size - 1 - rank;
+            }
+            return rank;
+        }
+    }
+}
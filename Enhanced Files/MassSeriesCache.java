@@ -0,0 +1,226 @@
+package com.example.masstracker;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MassSeriesCache keeps users' decoded log histories in memory so repeated
+ * views, sorts and searches do not query SQLite again. It is process-wide,
+ * so every account on a shared device draws on one memory budget, counted
+ * in bytes rather than entries because one user's history can be many
+ * times another's. The least recently used series is evicted first.
+ *
+ * Writes go through MassRepository, which patches a cached series in place
+ * when a log is added and drops it when many rows change at once. Cached
+ * series are shared with callers, who synchronize on a series while reading
+ * it, as the patch does while writing.
+ */
+public class MassSeriesCache {
+
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    private static MassSeriesCache instance;
+
+    // Access order: iteration starts at the least recently used series
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private long bytes;
+
+    // Bumped by every write, so a load that raced one is not cached
+    private long writes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @return The process-wide cache.
+     */
+    public static synchronized MassSeriesCache getInstance() {
+        if (instance == null) {
+            instance = new MassSeriesCache(DEFAULT_MAX_BYTES);
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor for MassSeriesCache.
+     *
+     * @param maxBytes The most memory the cached series may hold.
+     */
+    public MassSeriesCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a user's cached series and marks it most recently used.
+     *
+     * @param userId The ID of the user.
+     * @return The series, or null if it is not cached.
+     */
+    public synchronized MassSeries get(int userId) {
+        Entry entry = entries.get(userId);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        resize(entry); // A search may have built the mass index since it was cached
+        evict();
+        return entry.series;
+    }
+
+    /**
+     * Returns a stamp to take before loading a series from the database and
+     * pass to put, so a load that overlapped a write is not cached.
+     *
+     * @return The current write stamp.
+     */
+    public synchronized long stamp() {
+        return writes;
+    }
+
+    /**
+     * Caches a series loaded from the database, unless a write happened
+     * since the stamp was taken or the series alone exceeds the budget.
+     *
+     * @param userId The ID of the user.
+     * @param series The series.
+     * @param stamp  The value of stamp() taken before the load started.
+     */
+    public synchronized void put(int userId, MassSeries series, long stamp) {
+        if (stamp != writes) {
+            return;
+        }
+        Entry entry = new Entry(series);
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        remove(userId);
+        entries.put(userId, entry);
+        bytes += entry.bytes;
+        evict();
+    }
+
+    /**
+     * Applies an added or replaced log to the user's cached series.
+     *
+     * @param userId   The ID of the user.
+     * @param epochDay The day of the log.
+     * @param mass     The mass value.
+     */
+    public synchronized void onPut(int userId, int epochDay, double mass) {
+        writes++;
+        Entry entry = entries.get(userId);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry.series) {
+            entry.series.put(epochDay, mass);
+        }
+        resize(entry);
+        evict();
+    }
+
+    /**
+     * Applies a deleted log to the user's cached series.
+     *
+     * @param userId   The ID of the user.
+     * @param epochDay The day of the log.
+     */
+    public synchronized void onRemove(int userId, int epochDay) {
+        writes++;
+        Entry entry = entries.get(userId);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry.series) {
+            entry.series.remove(epochDay);
+        }
+    }
+
+    /**
+     * Drops a user's cached series after a write that changed many rows.
+     *
+     * @param userId The ID of the user.
+     */
+    public synchronized void invalidate(int userId) {
+        writes++;
+        remove(userId);
+    }
+
+    /**
+     * Drops every cached series, for example after the database is replaced.
+     */
+    public synchronized void clear() {
+        writes++;
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return The approximate memory the cached series hold.
+     */
+    public synchronized long getSizeInBytes() {
+        return bytes;
+    }
+
+    private void remove(int userId) {
+        Entry entry = entries.remove(userId);
+        if (entry != null) {
+            bytes -= entry.bytes;
+        }
+    }
+
+    private void resize(Entry entry) {
+        long size;
+        synchronized (entry.series) {
+            size = entry.series.sizeInBytes();
+        }
+        bytes += size - entry.bytes;
+        entry.bytes = size;
+    }
+
+    /**
+     * Evicts least recently used series until the cache is within budget.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Integer, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Entry is a cached series and the size it was last counted at.
+     */
+    private static class Entry {
+        final MassSeries series;
+        long bytes;
+
+        Entry(MassSeries series) {
+            this.series = series;
+            synchronized (series) {
+                this.bytes = series.sizeInBytes();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.masstracker;
+
+import java.io.IOException;
+
+/**
+ * MassStore is the storage engine under MassRepository for individual mass
+ * logs, keyed by user and epoch day with at most one log per key. Masses are
+ * in thousandths of the unit, as MassGrams converts them.
+ *
+ * SqliteMassStore keeps logs in the app database. MappedLogMassStore is an
+ * append-only log of memory-mapped files that needs only the plain JVM, so
+ * the two can be benchmarked against each other.
+ */
+public interface MassStore {
+
+    // Returned by get when there is no log for the key
+    long NOT_FOUND = Long.MIN_VALUE;
+
+    /**
+     * Receives the logs of a scan in ascending day order.
+     */
+    interface Visitor {
+        void visit(int epochDay, long grams);
+    }
+
+    /**
+     * Adds a log, replacing any log the user has on that day.
+     *
+     * @param userId   The ID of the user.
+     * @param epochDay The day of the log.
+     * @param grams    The mass in thousandths of the unit.
+     * @throws IOException If the log could not be written.
+     */
+    void append(int userId, int epochDay, long grams) throws IOException;
+
+    /**
+     * Visits a user's logs between two days, inclusive, oldest first.
+     *
+     * @param userId  The ID of the user.
+     * @param fromDay The first day of the range.
+     * @param toDay   The last day of the range.
+     * @param visitor Receives each log.
+     * @throws IOException If the logs could not be read.
+     */
+    void scan(int userId, int fromDay, int toDay, Visitor visitor) throws IOException;
+
+    /**
+     * Looks up the log a user has on a day.
+     *
+     * @param userId   The ID of the user.
+     * @param epochDay The day of the log.
+     * @return The mass in thousandths of the unit, or NOT_FOUND.
+     * @throws IOException If the log could not be read.
+     */
+    long get(int userId, int epochDay) throws IOException;
+
+    /**
+     * Deletes the log a user has on a day.
+     *
+     * @param userId   The ID of the user.
+     * @param epochDay The day of the log.
+     * @return True if a log was deleted.
+     * @throws IOException If the deletion could not be written.
+     */
+    boolean delete(int userId, int epochDay) throws IOException;
+
+    /**
+     * Reclaims the space held by replaced and deleted logs. This blocks
+     * until it is done, so it must not be called on the UI thread.
+     *
+     * @throws IOException If compaction failed; the stored logs are unchanged.
+     */
+    void compact() throws IOException;
+
+    /**
+     * Flushes pending writes and releases the store's files.
+     *
+     * @throws IOException If flushing failed.
+     */
+    void close() throws IOException;
+}
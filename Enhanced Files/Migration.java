@@ -0,0 +1,78 @@
+package com.example.masstracker;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Migration is one step of the schema history, taking the database from
+ * the previous version to getVersion(). A step runs as a series of bounded
+ * batches, each in its own transaction. MigrationEngine saves the returned
+ * checkpoint after every batch, so a step resumes where it stopped if the
+ * app is killed part way through.
+ */
+public abstract class Migration {
+
+    // Returned by migrate when the step has finished
+    public static final long DONE = -1;
+
+    private final int version;
+
+    /**
+     * Constructor for Migration.
+     *
+     * @param version The schema version this step upgrades to.
+     */
+    protected Migration(int version) {
+        this.version = version;
+    }
+
+    /**
+     * @return The schema version this step upgrades to.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Runs one batch of the step inside the caller's transaction.
+     *
+     * @param db         The database instance.
+     * @param checkpoint 0 on the first call, then the value the previous batch returned.
+     * @param batchSize  The most rows a batch should touch.
+     * @return The checkpoint to resume from, or DONE.
+     */
+    public abstract long migrate(SQLiteDatabase db, long checkpoint, int batchSize);
+
+    /**
+     * Finds the last rowid of the next batch of a table, from the rowid B-tree
+     * without reading the rows.
+     *
+     * @param db        The database instance.
+     * @param table     A table with a rowid.
+     * @param after     The last rowid already processed.
+     * @param batchSize The most rows in the batch.
+     * @return The last rowid of the batch, or DONE if no rows are left.
+     */
+    protected static long batchEnd(SQLiteDatabase db, String table, long after, int batchSize) {
+        return CursorRows.firstLong(db.rawQuery("SELECT MAX(rowid) FROM (SELECT rowid FROM " + table +
+                " WHERE rowid > ? ORDER BY rowid LIMIT ?)", new String[]{String.valueOf(after), String.valueOf(batchSize)}), DONE);
+    }
+
+    protected static boolean tableExists(SQLiteDatabase db, String table) {
+        try (Cursor cursor = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?", new String[]{table})) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    protected static boolean columnExists(SQLiteDatabase db, String table, String column) {
+        try (Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null)) {
+            int name = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(name))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
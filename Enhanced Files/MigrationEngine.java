@@ -0,0 +1,132 @@
+package com.example.masstracker;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * MigrationEngine upgrades the schema without dropping data. When
+ * SQLiteOpenHelper reports an upgrade, the engine only records which steps
+ * are pending; the steps then run in version order once the database is
+ * open, one bounded batch per transaction, with the checkpoint of each step
+ * saved in the schema_migrations table. A step interrupted by the app being
+ * killed resumes from its last committed batch on the next open.
+ */
+public class MigrationEngine {
+
+    public static final int DEFAULT_BATCH_SIZE = 2000;
+
+    static final String TABLE_MIGRATIONS = "schema_migrations";
+    private static final String COLUMN_VERSION = "version";
+    private static final String COLUMN_CHECKPOINT = "checkpoint";
+
+    private static final String TAG = "MigrationEngine";
+
+    private static final String TABLE_CREATE_MIGRATIONS =
+            "CREATE TABLE IF NOT EXISTS " + TABLE_MIGRATIONS + " (" +
+                    COLUMN_VERSION + " INTEGER PRIMARY KEY, " + // A pending step; removed once it finishes
+                    COLUMN_CHECKPOINT + " INTEGER NOT NULL DEFAULT 0);";
+
+    private final Migration[] migrations;
+    private final int batchSize;
+
+    /**
+     * Constructor for MigrationEngine.
+     *
+     * @param migrations The steps, in ascending version order.
+     * @param batchSize  The most rows a batch should touch.
+     */
+    public MigrationEngine(Migration[] migrations, int batchSize) {
+        this.migrations = migrations;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return The engine holding every step of this app's schema history.
+     */
+    public static MigrationEngine create() {
+        return new MigrationEngine(new Migration[]{
+                new RebuildTablesMigration(),
+                new CompactMassMigration(), // Also covers versions 3 to 5, which only built on the old layout
+        }, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates the table that tracks pending steps.
+     *
+     * @param db The database instance.
+     */
+    public static void createTable(SQLiteDatabase db) {
+        db.execSQL(TABLE_CREATE_MIGRATIONS);
+    }
+
+    /**
+     * Records the steps between two versions as pending. This is cheap, so it
+     * belongs in onUpgrade; the steps themselves run in runPending.
+     *
+     * @param db         The database instance.
+     * @param oldVersion The version the database is at.
+     * @param newVersion The version the app expects.
+     */
+    public void schedule(SQLiteDatabase db, int oldVersion, int newVersion) {
+        createTable(db);
+        for (Migration migration : migrations) {
+            if (migration.getVersion() > oldVersion && migration.getVersion() <= newVersion) {
+                db.execSQL("INSERT OR IGNORE INTO " + TABLE_MIGRATIONS + " (" + COLUMN_VERSION + ") VALUES (?)",
+                        new Object[]{migration.getVersion()});
+            }
+        }
+    }
+
+    /**
+     * Runs every pending step to completion, in version order, committing
+     * after each batch. Must be called outside a transaction.
+     *
+     * @param db The database instance.
+     */
+    public void runPending(SQLiteDatabase db) {
+        createTable(db); // Databases created before the engine existed have no table yet
+        // Steps no longer in the history were superseded by a later one, which is pending too
+        StringBuilder known = new StringBuilder();
+        for (Migration migration : migrations) {
+            known.append(known.length() == 0 ? "" : ", ").append(migration.getVersion());
+        }
+        db.execSQL("DELETE FROM " + TABLE_MIGRATIONS + " WHERE " + COLUMN_VERSION + " NOT IN (" + known + ")");
+        for (Migration migration : migrations) {
+            long checkpoint = pendingCheckpoint(db, migration.getVersion());
+            if (checkpoint == Migration.DONE) {
+                continue;
+            }
+            long start = System.currentTimeMillis();
+            int batches = 0;
+            while (checkpoint != Migration.DONE) {
+                long batchStart = System.nanoTime();
+                db.beginTransaction();
+                try {
+                    checkpoint = migration.migrate(db, checkpoint, batchSize);
+                    if (checkpoint == Migration.DONE) {
+                        db.delete(TABLE_MIGRATIONS, COLUMN_VERSION + "=?",
+                                new String[]{String.valueOf(migration.getVersion())});
+                    } else {
+                        db.execSQL("UPDATE " + TABLE_MIGRATIONS + " SET " + COLUMN_CHECKPOINT + "=? WHERE " +
+                                COLUMN_VERSION + "=?", new Object[]{checkpoint, migration.getVersion()});
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                QueryMetrics.getInstance().record("db.migration.batch", batchStart, 0, 0);
+                batches++;
+            }
+            Log.i(TAG, "Migrated to version " + migration.getVersion() + " in " + batches + " batches, "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * @return The saved checkpoint of a pending step, or DONE if it is not pending.
+     */
+    private static long pendingCheckpoint(SQLiteDatabase db, int version) {
+        return CursorRows.firstLong(db.rawQuery("SELECT " + COLUMN_CHECKPOINT + " FROM " + TABLE_MIGRATIONS +
+                " WHERE " + COLUMN_VERSION + "=?", new String[]{String.valueOf(version)}), Migration.DONE);
+    }
+}
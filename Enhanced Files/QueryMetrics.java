@@ -0,0 +1,444 @@
+package com.example.masstracker;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * QueryMetrics records, for each named database operation, how long it took,
+ * how many rows it read or wrote and how many bytes turning those rows into
+ * objects allocated. Latencies go into power-of-two histograms, so recording
+ * costs a few additions and the memory used stays fixed however many
+ * operations run.
+ *
+ * An operation slower than the threshold is also kept in a short slow-query
+ * log together with SQLite's EXPLAIN QUERY PLAN, which tells a missing index
+ * apart from a large result. Tests read everything back through the getters,
+ * and dumpText and dumpJson export it.
+ */
+public class QueryMetrics {
+
+    public static final long DEFAULT_SLOW_MILLIS = 50;
+    public static final int SLOW_LOG_SIZE = 32;
+
+    // Bucket 0 counts latencies under 1 us, bucket i those under 2^i us; the last is open-ended
+    static final int BUCKETS = 24;
+
+    private static QueryMetrics instance;
+
+    // Sorted by name so dumps are stable
+    private final Map<String, Stats> stats = new TreeMap<>();
+    private final ArrayDeque<SlowQuery> slowLog = new ArrayDeque<>();
+    private volatile long slowNanos;
+
+    /**
+     * @return The process-wide metrics.
+     */
+    public static synchronized QueryMetrics getInstance() {
+        if (instance == null) {
+            instance = new QueryMetrics(DEFAULT_SLOW_MILLIS);
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor for QueryMetrics.
+     *
+     * @param slowMillis Operations taking at least this long go to the slow-query log.
+     */
+    public QueryMetrics(long slowMillis) {
+        setSlowThresholdMillis(slowMillis);
+    }
+
+    /**
+     * Sets the latency at which operations are logged as slow. Tests can set
+     * it to 0 to capture the plan of every query.
+     *
+     * @param slowMillis The threshold in milliseconds.
+     */
+    public void setSlowThresholdMillis(long slowMillis) {
+        if (slowMillis < 0) {
+            throw new IllegalArgumentException("slowMillis must not be negative: " + slowMillis);
+        }
+        slowNanos = slowMillis * 1_000_000;
+    }
+
+    /**
+     * Records an operation that has no query plan, such as a write made
+     * through ContentValues or work on objects already loaded.
+     *
+     * @param name       The name of the operation.
+     * @param startNanos The value of System.nanoTime() when it started.
+     * @param rows       The number of rows it read or wrote.
+     * @param bytes      The bytes allocated to hold its results.
+     */
+    public void record(String name, long startNanos, long rows, long bytes) {
+        record(name, startNanos, rows, bytes, null, null, null);
+    }
+
+    /**
+     * Records a query that ends now. If it was slow, its plan is read on the
+     * connection it ran on, which the caller must still hold.
+     *
+     * @param name       The name of the operation.
+     * @param startNanos The value of System.nanoTime() when it started.
+     * @param rows       The number of rows it read or wrote.
+     * @param bytes      The bytes allocated to hold its results.
+     * @param db         The connection the query ran on, or null.
+     * @param sql        The SQL text, or null.
+     * @param args       The SQL's arguments, or null.
+     */
+    public void record(String name, long startNanos, long rows, long bytes,
+                       SQLiteDatabase db, String sql, String[] args) {
+        long nanos = System.nanoTime() - startNanos;
+        synchronized (this) {
+            Stats entry = stats.get(name);
+            if (entry == null) {
+                entry = new Stats(name);
+                stats.put(name, entry);
+            }
+            entry.add(nanos, rows, bytes);
+        }
+        if (nanos < slowNanos) {
+            return;
+        }
+        // Explained outside the lock: it is another query, and only slow operations pay for it
+        String plan = db != null && sql != null ? explain(db, sql, args) : null;
+        SlowQuery slow = new SlowQuery(name, sql, plan, nanos, rows, System.currentTimeMillis());
+        synchronized (this) {
+            if (slowLog.size() == SLOW_LOG_SIZE) {
+                slowLog.removeFirst();
+            }
+            slowLog.addLast(slow);
+        }
+    }
+
+    /**
+     * @param name The name of an operation.
+     * @return A copy of its statistics, or null if it never ran.
+     */
+    public synchronized Stats getStats(String name) {
+        Stats entry = stats.get(name);
+        return entry == null ? null : entry.copy();
+    }
+
+    /**
+     * @return Copies of every operation's statistics, sorted by name.
+     */
+    public synchronized List<Stats> getAllStats() {
+        List<Stats> copies = new ArrayList<>(stats.size());
+        for (Stats entry : stats.values()) {
+            copies.add(entry.copy());
+        }
+        return copies;
+    }
+
+    /**
+     * @return The slow-query log, oldest first.
+     */
+    public synchronized List<SlowQuery> getSlowQueries() {
+        return new ArrayList<>(slowLog);
+    }
+
+    /**
+     * Clears every statistic and the slow-query log.
+     */
+    public synchronized void reset() {
+        stats.clear();
+        slowLog.clear();
+    }
+
+    /**
+     * Dumps the statistics as one line per operation, then the slow-query log.
+     *
+     * @return The dump.
+     */
+    public String dumpText() {
+        List<Stats> all = getAllStats();
+        List<SlowQuery> slow = getSlowQueries();
+        StringBuilder text = new StringBuilder();
+        for (Stats entry : all) {
+            text.append(entry.getName())
+                    .append(" count=").append(entry.getCount())
+                    .append(" rows=").append(entry.getRows())
+                    .append(" bytes=").append(entry.getBytes())
+                    .append(" mean=").append(entry.getMeanMicros()).append("us")
+                    .append(" p50<=").append(entry.percentileMicros(50)).append("us")
+                    .append(" p90<=").append(entry.percentileMicros(90)).append("us")
+                    .append(" p99<=").append(entry.percentileMicros(99)).append("us")
+                    .append(" max=").append(entry.getMaxNanos() / 1000).append("us")
+                    .append('\n');
+        }
+        for (SlowQuery query : slow) {
+            text.append("slow ").append(query.getName())
+                    .append(' ').append(query.getNanos() / 1000).append("us")
+                    .append(" rows=").append(query.getRows());
+            if (query.getSql() != null) {
+                text.append(" sql=").append(query.getSql());
+            }
+            text.append('\n');
+            if (query.getPlan() != null) {
+                for (String step : query.getPlan().split("\n")) {
+                    text.append("  ").append(step).append('\n');
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Dumps the statistics and the slow-query log as a JSON object, with
+     * latencies in microseconds and each histogram as an array of counts.
+     *
+     * @return The dump.
+     */
+    public String dumpJson() {
+        List<Stats> all = getAllStats();
+        List<SlowQuery> slow = getSlowQueries();
+        StringBuilder json = new StringBuilder("{\"queries\":{");
+        for (int i = 0; i < all.size(); i++) {
+            Stats entry = all.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            quote(json, entry.getName());
+            json.append(":{\"count\":").append(entry.getCount())
+                    .append(",\"rows\":").append(entry.getRows())
+                    .append(",\"bytes\":").append(entry.getBytes())
+                    .append(",\"totalUs\":").append(entry.getTotalNanos() / 1000)
+                    .append(",\"maxUs\":").append(entry.getMaxNanos() / 1000)
+                    .append(",\"histogram\":").append(Arrays.toString(entry.histogram).replace(" ", ""))
+                    .append('}');
+        }
+        json.append("},\"slow\":[");
+        for (int i = 0; i < slow.size(); i++) {
+            SlowQuery query = slow.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"name\":");
+            quote(json, query.getName());
+            json.append(",\"us\":").append(query.getNanos() / 1000)
+                    .append(",\"rows\":").append(query.getRows())
+                    .append(",\"at\":").append(query.getTimeMillis())
+                    .append(",\"sql\":");
+            quote(json, query.getSql());
+            json.append(",\"plan\":");
+            quote(json, query.getPlan());
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Reads a query's plan, one step per line.
+     */
+    static String explain(SQLiteDatabase db, String sql, String[] args) {
+        StringBuilder plan = new StringBuilder();
+        try {
+            Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            try {
+                int detail = cursor.getColumnIndexOrThrow("detail");
+                while (cursor.moveToNext()) {
+                    if (plan.length() > 0) {
+                        plan.append('\n');
+                    }
+                    plan.append(cursor.getString(detail));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            // The log must never fail the query it describes
+            return "EXPLAIN failed: " + e.getMessage();
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Appends a JSON string literal, or null.
+     */
+    private static void quote(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Stats holds the totals and latency histogram of one operation.
+     */
+    public static class Stats {
+        private final String name;
+        private final long[] histogram;
+        private long count;
+        private long rows;
+        private long bytes;
+        private long totalNanos;
+        private long maxNanos;
+
+        Stats(String name) {
+            this.name = name;
+            this.histogram = new long[BUCKETS];
+        }
+
+        void add(long nanos, long rows, long bytes) {
+            long micros = nanos / 1000;
+            int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            histogram[bucket]++;
+            count++;
+            this.rows += rows;
+            this.bytes += bytes;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        Stats copy() {
+            Stats copy = new Stats(name);
+            System.arraycopy(histogram, 0, copy.histogram, 0, BUCKETS);
+            copy.count = count;
+            copy.rows = rows;
+            copy.bytes = bytes;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            return copy;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getMeanMicros() {
+            return count == 0 ? 0 : totalNanos / count / 1000;
+        }
+
+        /**
+         * @param bucket A histogram bucket.
+         * @return The number of operations in it.
+         */
+        public long getBucketCount(int bucket) {
+            return histogram[bucket];
+        }
+
+        /**
+         * Estimates a latency percentile from the histogram, as the upper
+         * bound of the bucket it falls in, or the maximum if that is lower.
+         *
+         * @param percent The percentile, from 0 to 100.
+         * @return The latency in microseconds.
+         */
+        public long percentileMicros(double percent) {
+            long target = (long) Math.ceil(count * percent / 100);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS - 1; bucket++) {
+                seen += histogram[bucket];
+                if (seen >= target && seen > 0) {
+                    return Math.min(1L << bucket, maxNanos / 1000);
+                }
+            }
+            return maxNanos / 1000;
+        }
+    }
+
+    /**
+     * SlowQuery is one entry of the slow-query log.
+     */
+    public static class SlowQuery {
+        private final String name;
+        private final String sql;
+        private final String plan;
+        private final long nanos;
+        private final long rows;
+        private final long timeMillis;
+
+        SlowQuery(String name, String sql, String plan, long nanos, long rows, long timeMillis) {
+            this.name = name;
+            this.sql = sql;
+            this.plan = plan;
+            this.nanos = nanos;
+            this.rows = rows;
+            this.timeMillis = timeMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The SQL text, or null if the operation had none.
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * @return The query plan, one step per line, or null if the operation had no SQL.
+         */
+        public String getPlan() {
+            return plan;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return When the operation finished, in milliseconds since the epoch.
+         */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+    }
+}
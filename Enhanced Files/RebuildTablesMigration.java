@@ -0,0 +1,105 @@
+package com.example.masstracker;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Version 2 added NOT NULL and UNIQUE constraints and ON DELETE CASCADE,
+ * which SQLite can only add by rebuilding the tables. The version 1 tables
+ * are renamed aside, users are copied in the first batch, and mass rows are
+ * copied in rowid order one batch at a time before the old tables are
+ * dropped. Columns are named explicitly, as version 1 declared them.
+ *
+ * Rows that break the new constraints are not dropped. A user with no name
+ * or password, or a second account with a name already taken, goes to the
+ * users_quarantine table. A mass row with no date or mass, or whose user
+ * was not carried over, goes to the mass_quarantine table.
+ *
+ * The mass table keeps its version 2 layout, with text dates and real
+ * masses; CompactMassMigration converts it afterwards.
+ */
+class RebuildTablesMigration extends Migration {
+
+    // Mass columns of versions 1 to 5
+    static final String COLUMN_DATE = "date";
+    static final String COLUMN_MASS = "mass";
+
+    private static final String TABLE_CREATE_MASS =
+            "CREATE TABLE " + DatabaseHelper.TABLE_MASS + " (" +
+                    COLUMN_DATE + " TEXT NOT NULL, " +
+                    COLUMN_MASS + " REAL NOT NULL, " +
+                    DatabaseHelper.COLUMN_USER_ID_FK + " INTEGER NOT NULL, " +
+                    "FOREIGN KEY(" + DatabaseHelper.COLUMN_USER_ID_FK + ") REFERENCES " + DatabaseHelper.TABLE_USERS +
+                    "(" + DatabaseHelper.COLUMN_USER_ID + ") ON DELETE CASCADE);";
+
+    private static final String OLD_USERS = DatabaseHelper.TABLE_USERS + "_v1";
+    private static final String OLD_MASS = DatabaseHelper.TABLE_MASS + "_v1";
+
+    // The version 1 users columns, which every later version kept
+    private static final String USER_COLUMNS = DatabaseHelper.COLUMN_USER_ID + ", " +
+            DatabaseHelper.COLUMN_USERNAME + ", " + DatabaseHelper.COLUMN_PASSWORD + ", " + DatabaseHelper.COLUMN_GOAL;
+
+    private static final String MASS_COLUMNS = COLUMN_DATE + ", " + COLUMN_MASS + ", " + DatabaseHelper.COLUMN_USER_ID_FK;
+
+    private static final String TABLE_CREATE_USERS_QUARANTINE =
+            "CREATE TABLE IF NOT EXISTS " + DatabaseHelper.TABLE_USERS_QUARANTINE + " (" +
+                    DatabaseHelper.COLUMN_USER_ID + " INTEGER, " +
+                    DatabaseHelper.COLUMN_USERNAME + " TEXT, " +
+                    DatabaseHelper.COLUMN_PASSWORD + " TEXT, " +
+                    DatabaseHelper.COLUMN_GOAL + " REAL);";
+
+    // Rows of the old table that the new tables now hold
+    private static final String CARRIED_USER = DatabaseHelper.COLUMN_USER_ID + " IN (SELECT " +
+            DatabaseHelper.COLUMN_USER_ID + " FROM " + DatabaseHelper.TABLE_USERS + ")";
+    private static final String CARRIED_MASS = COLUMN_DATE + " IS NOT NULL AND " + COLUMN_MASS + " IS NOT NULL AND " +
+            DatabaseHelper.COLUMN_USER_ID_FK + " IN (SELECT " + DatabaseHelper.COLUMN_USER_ID + " FROM " +
+            DatabaseHelper.TABLE_USERS + ")";
+
+    RebuildTablesMigration() {
+        super(2);
+    }
+
+    @Override
+    public long migrate(SQLiteDatabase db, long checkpoint, int batchSize) {
+        if (!tableExists(db, OLD_MASS)) {
+            db.execSQL("ALTER TABLE " + DatabaseHelper.TABLE_USERS + " RENAME TO " + OLD_USERS);
+            db.execSQL("ALTER TABLE " + DatabaseHelper.TABLE_MASS + " RENAME TO " + OLD_MASS);
+            db.execSQL(DatabaseHelper.TABLE_CREATE_USERS);
+            db.execSQL(TABLE_CREATE_MASS);
+            // Users are few, so they move in one batch; duplicate names keep the first account
+            db.execSQL("INSERT OR IGNORE INTO " + DatabaseHelper.TABLE_USERS + " (" + USER_COLUMNS + ")" +
+                    " SELECT " + USER_COLUMNS + " FROM " + OLD_USERS +
+                    " WHERE " + DatabaseHelper.COLUMN_USERNAME + " IS NOT NULL AND " +
+                    DatabaseHelper.COLUMN_PASSWORD + " IS NOT NULL ORDER BY " + DatabaseHelper.COLUMN_USER_ID);
+            if (hasRows(db, OLD_USERS, "NOT " + CARRIED_USER, new String[0])) {
+                db.execSQL(TABLE_CREATE_USERS_QUARANTINE);
+                db.execSQL("INSERT INTO " + DatabaseHelper.TABLE_USERS_QUARANTINE + " (" + USER_COLUMNS + ")" +
+                        " SELECT " + USER_COLUMNS + " FROM " + OLD_USERS + " WHERE NOT " + CARRIED_USER +
+                        " ORDER BY " + DatabaseHelper.COLUMN_USER_ID);
+            }
+            return 0; // No mass rows copied yet
+        }
+
+        long last = batchEnd(db, OLD_MASS, checkpoint, batchSize);
+        if (last == DONE) {
+            db.execSQL("DROP TABLE " + OLD_MASS);
+            db.execSQL("DROP TABLE " + OLD_USERS);
+            return DONE;
+        }
+
+        Object[] range = {checkpoint, last};
+        db.execSQL("INSERT INTO " + DatabaseHelper.TABLE_MASS + " (rowid, " + MASS_COLUMNS + ")" +
+                " SELECT rowid, " + MASS_COLUMNS + " FROM " + OLD_MASS +
+                " WHERE rowid > ? AND rowid <= ? AND " + CARRIED_MASS, range);
+        String rejected = "rowid > ? AND rowid <= ? AND NOT coalesce(" + CARRIED_MASS + ", 0)";
+        if (hasRows(db, OLD_MASS, rejected, new String[]{String.valueOf(checkpoint), String.valueOf(last)})) {
+            db.execSQL(DatabaseHelper.TABLE_CREATE_MASS_QUARANTINE);
+            db.execSQL("INSERT INTO " + DatabaseHelper.TABLE_MASS_QUARANTINE + " (" + MASS_COLUMNS + ")" +
+                    " SELECT " + MASS_COLUMNS + " FROM " + OLD_MASS + " WHERE " + rejected + " ORDER BY rowid", range);
+        }
+        return last;
+    }
+
+    private static boolean hasRows(SQLiteDatabase db, String table, String where, String[] args) {
+        return CursorRows.firstLong(db.rawQuery("SELECT 1 FROM " + table + " WHERE " + where + " LIMIT 1", args), 0) == 1;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.masstracker;
+
+/**
+ * SortOrder lists the orderings the dashboard can display mass logs in.
+ * The constants follow the order of the options in the sort dialog.
+ */
+public enum SortOrder {
+    DATE_ASCENDING,
+    DATE_DESCENDING,
+    MASS_ASCENDING,
+    MASS_DESCENDING;
+
+    /**
+     * Maps a sort dialog option to its ordering.
+     *
+     * @param option The sorting option (0-3).
+     * @return The matching SortOrder, or DATE_ASCENDING for unknown options.
+     */
+    public static SortOrder fromOption(int option) {
+        SortOrder[] orders = values();
+        return option >= 0 && option < orders.length ? orders[option] : DATE_ASCENDING;
+    }
+}
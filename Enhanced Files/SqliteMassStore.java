@@ -0,0 +1,98 @@
+package com.example.masstracker;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * SqliteMassStore keeps mass logs in the app database's mass table, whose
+ * primary key on (user_id_fk, day) serves both lookups and range scans.
+ * The table's triggers keep the rollups and change log up to date with
+ * every write made here.
+ */
+public class SqliteMassStore implements MassStore {
+
+    // Constant SQL text, shared with the benchmarks' JDBC store
+    static final String RANGE_SQL =
+            "SELECT " + DatabaseHelper.COLUMN_DAY + ", " + DatabaseHelper.COLUMN_MASS_GRAMS +
+                    " FROM " + DatabaseHelper.TABLE_MASS +
+                    " WHERE " + DatabaseHelper.COLUMN_USER_ID_FK + "=?" +
+                    " AND " + DatabaseHelper.COLUMN_DAY + ">=? AND " + DatabaseHelper.COLUMN_DAY + "<=?" +
+                    " ORDER BY " + DatabaseHelper.COLUMN_DAY + " ASC";
+    static final String GET_SQL =
+            "SELECT " + DatabaseHelper.COLUMN_MASS_GRAMS +
+                    " FROM " + DatabaseHelper.TABLE_MASS +
+                    " WHERE " + DatabaseHelper.COLUMN_USER_ID_FK + "=? AND " + DatabaseHelper.COLUMN_DAY + "=?";
+    static final String KEY_WHERE =
+            DatabaseHelper.COLUMN_USER_ID_FK + "=? AND " + DatabaseHelper.COLUMN_DAY + "=?";
+
+    private final DatabaseHelper dbHelper;
+    private final QueryMetrics metrics = QueryMetrics.getInstance();
+
+    /**
+     * Constructor for SqliteMassStore.
+     *
+     * @param dbHelper The helper holding the database; the caller keeps ownership of it.
+     */
+    public SqliteMassStore(DatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    @Override
+    public void append(int userId, int epochDay, long grams) {
+        long start = System.nanoTime();
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.COLUMN_USER_ID_FK, userId);
+        values.put(DatabaseHelper.COLUMN_DAY, epochDay);
+        values.put(DatabaseHelper.COLUMN_MASS_GRAMS, grams);
+        // Throws SQLiteException rather than returning -1 on failure
+        dbHelper.getWritableDatabase().insertWithOnConflict(DatabaseHelper.TABLE_MASS, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+        metrics.record("mass.append", start, 1, 0);
+    }
+
+    @Override
+    public void scan(int userId, int fromDay, int toDay, Visitor visitor) {
+        String[] args = {String.valueOf(userId), String.valueOf(fromDay), String.valueOf(toDay)};
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        long start = System.nanoTime();
+        int rows = CursorRows.forEachDayMass(db.rawQuery(RANGE_SQL, args), visitor);
+        metrics.record("mass.scan", start, rows, 0, db, RANGE_SQL, args);
+    }
+
+    @Override
+    public long get(int userId, int epochDay) {
+        String[] args = {String.valueOf(userId), String.valueOf(epochDay)};
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        long start = System.nanoTime();
+        long grams = CursorRows.firstLong(db.rawQuery(GET_SQL, args), NOT_FOUND);
+        metrics.record("mass.get", start, grams == NOT_FOUND ? 0 : 1, 0, db, GET_SQL, args);
+        return grams;
+    }
+
+    @Override
+    public boolean delete(int userId, int epochDay) {
+        long start = System.nanoTime();
+        int rows = dbHelper.getWritableDatabase().delete(DatabaseHelper.TABLE_MASS, KEY_WHERE,
+                new String[]{String.valueOf(userId), String.valueOf(epochDay)});
+        metrics.record("mass.delete", start, rows, 0);
+        return rows > 0;
+    }
+
+    /**
+     * Rebuilds the database file without its free pages. This rewrites the
+     * whole file and holds off writers until it finishes.
+     */
+    @Override
+    public void compact() {
+        long start = System.nanoTime();
+        dbHelper.getWritableDatabase().execSQL("VACUUM");
+        metrics.record("db.vacuum", start, 0, 0);
+    }
+
+    /**
+     * Does nothing: the database belongs to the helper, which the caller closes.
+     */
+    @Override
+    public void close() {
+    }
+}
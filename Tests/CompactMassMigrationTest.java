@@ -0,0 +1,128 @@
+package com.example.masstracker;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a version 5 database whose dates were typed in several layouts,
+ * with several logs of a day and logs of a deleted user, and checks that
+ * every log is either converted or kept in quarantine.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CompactMassMigrationTest {
+
+    private static final int USER = 1;
+    private static final int DELETED_USER = 2;
+
+    private Context context;
+    private File databaseFile;
+
+    @Before
+    public void setUp() {
+        DatabaseManager.reset();
+        context = RuntimeEnvironment.getApplication();
+        databaseFile = context.getDatabasePath(DatabaseHelper.DATABASE_NAME);
+        assertTrue(databaseFile.getParentFile().isDirectory() || databaseFile.getParentFile().mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.reset();
+    }
+
+    @Test
+    public void recoversTypedDatesAndQuarantinesTheRest() {
+        SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
+        try {
+            old.execSQL(DatabaseHelper.TABLE_CREATE_USERS);
+            old.execSQL("CREATE TABLE mass (date TEXT NOT NULL, mass REAL NOT NULL, user_id_fk INTEGER NOT NULL)");
+            old.execSQL("INSERT INTO users (_id, username, password) VALUES (1, 'ada', 'secret')");
+            Object[][] rows = {
+                    {"2024-03-01", 70.0, USER}, // Replaced by the later converted log of the day
+                    {"2024-3-2", 71.0, USER}, // Replaced by the later canonical log of the day
+                    {"2024/03/03 08:15", 72.0, USER},
+                    {"25/03/2024", 73.0, USER}, // Only day-first names a real day
+                    {"03/04/2024", 74.0, USER}, // March 4 or April 3
+                    {"yesterday", 75.0, USER},
+                    {"2024-02-30", 76.0, USER},
+                    {"2024-3-1", 77.0, USER}, // Replaces the earlier log of the day
+                    {"2024-03-02", 78.0, USER},
+                    {"٢٠٢٤-٠٣-٠٥", 79.0, USER}, // Arabic-Indic digits
+                    {"2024-03-06", 80.0, DELETED_USER}, // Versions 2 to 5 did not enforce foreign keys
+            };
+            for (Object[] row : rows) {
+                old.execSQL("INSERT INTO mass (date, mass, user_id_fk) VALUES (?, ?, ?)", row);
+            }
+            old.setVersion(5);
+        } finally {
+            old.close();
+        }
+
+        MassRepository repository = new MassRepository(context);
+        MassSeries series;
+        try {
+            series = repository.getAllMassLogs(USER);
+        } finally {
+            repository.close();
+        }
+
+        String[] days = {"2024-03-01", "2024-03-02", "2024-03-03", "2024-03-05", "2024-03-25"};
+        double[] masses = {77.0, 78.0, 72.0, 79.0, 73.0};
+        assertEquals(days.length, series.size());
+        for (int i = 0; i < days.length; i++) {
+            assertEquals(days[i], EpochDays.format(series.dayAt(i)));
+            assertEquals(masses[i], series.massAt(i), 1e-9);
+        }
+
+        List<String> quarantined = new ArrayList<>();
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(databaseFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(6, db.getVersion());
+            try (Cursor cursor = db.rawQuery("SELECT user_id_fk, date, mass FROM " +
+                    DatabaseHelper.TABLE_MASS_QUARANTINE + " ORDER BY rowid", null)) {
+                while (cursor.moveToNext()) {
+                    quarantined.add(cursor.getInt(0) + "|" + cursor.getString(1) + "=" + cursor.getDouble(2));
+                }
+            }
+        } finally {
+            db.close();
+        }
+        List<String> expected = new ArrayList<>();
+        expected.add(DELETED_USER + "|2024-03-06=80.0");
+        expected.add(USER + "|2024-3-2=71.0");
+        expected.add(USER + "|03/04/2024=74.0");
+        expected.add(USER + "|yesterday=75.0");
+        expected.add(USER + "|2024-02-30=76.0");
+        expected.add(USER + "|2024-03-01=70.0"); // Converted before it was replaced
+        assertEquals(expected, quarantined);
+    }
+
+    @Test
+    public void recoverDayReadsOnlyUnambiguousDates() {
+        assertEquals(EpochDays.parse("2024-03-01"), CompactMassMigration.recoverDay(" 2024.3.1 "));
+        assertEquals(EpochDays.parse("2024-03-01"), CompactMassMigration.recoverDay("2024-03-01T07:30:00"));
+        assertEquals(EpochDays.parse("2024-12-31"), CompactMassMigration.recoverDay("12/31/2024"));
+        assertEquals(EpochDays.parse("2024-05-05"), CompactMassMigration.recoverDay("5/5/2024"));
+        assertEquals(EpochDays.INVALID, CompactMassMigration.recoverDay("01/02/2024"));
+        assertEquals(EpochDays.INVALID, CompactMassMigration.recoverDay("01/02/24"));
+        assertEquals(EpochDays.INVALID, CompactMassMigration.recoverDay("2023-02-29"));
+        assertEquals(EpochDays.INVALID, CompactMassMigration.recoverDay("2024-03"));
+        assertEquals(EpochDays.INVALID, CompactMassMigration.recoverDay(""));
+        assertEquals(EpochDays.INVALID, CompactMassMigration.recoverDay(null));
+    }
+}
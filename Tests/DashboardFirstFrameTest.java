@@ -0,0 +1,186 @@
+package com.example.masstracker;
+
+import android.app.Application;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Checks that the dashboard's first frame comes from the DashboardSnapshot
+ * without touching the database on the main thread, that a snapshot which
+ * no longer matches the database is replaced by the live page, and that
+ * the time to show the snapshot does not grow with the history.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DashboardFirstFrameTest {
+
+    private static final int USER = 1;
+    private static final int PAGE_SIZE = 2;
+
+    // A user per history size, so one database holds both
+    private static final int SMALL_USER = 2;
+    private static final int SMALL_HISTORY = 100;
+    private static final int LARGE_USER = 3;
+    private static final int LARGE_HISTORY = 20_000;
+    private static final int REPEATS = 5;
+
+    private Application application;
+    private MassRepository repository;
+    private DashboardViewModel viewModel;
+
+    @Before
+    public void setUp() {
+        DatabaseManager.reset();
+        application = RuntimeEnvironment.getApplication();
+        repository = new MassRepository(application);
+        assertTrue(repository.addMassLog(USER, "2024-03-01", 70.0));
+        assertTrue(repository.addMassLog(USER, "2024-03-02", 72.0)); // Edited since the snapshot
+        assertTrue(repository.addMassLog(USER, "2024-03-03", 73.0));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DatabaseHelper.setMainThreadChecksEnabled(false);
+        if (viewModel != null) {
+            GoalTracker.awaitIdle();
+            viewModel.onCleared();
+        }
+        repository.close();
+        // The ViewModel closes its repository in the background
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (DatabaseManager.getReferenceCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        DatabaseManager.reset();
+    }
+
+    @Test
+    public void snapshotIsShownFirstAndReplacedByTheLivePage() throws Exception {
+        MassPage saved = new MassPage(SortOrder.DATE_ASCENDING,
+                new int[]{EpochDays.parse("2024-03-01"), EpochDays.parse("2024-03-02")},
+                new double[]{70.0, 71.0}, PAGE_SIZE, true, false);
+        DashboardSnapshot.save(application, USER, new DashboardSnapshot(saved, GoalTracker.NO_GOAL));
+
+        DatabaseHelper.setMainThreadChecksEnabled(true);
+        Lock exclusive = DatabaseHelper.exclusiveGate();
+        exclusive.lock(); // Holds every query back, as a slow first open would
+        try {
+            viewModel = new DashboardViewModel(application);
+            viewModel.setUserId(USER);
+            viewModel.loadInitialPage(PAGE_SIZE);
+            assertEquals(describe(saved), describe(viewModel.getPage().getValue()));
+        } finally {
+            exclusive.unlock();
+        }
+
+        MassPage live = awaitPageOtherThan(viewModel.getPage().getValue());
+        assertEquals(PAGE_SIZE, live.size());
+        assertEquals("2024-03-02", EpochDays.format(live.dayAt(1)));
+        assertEquals(72.0, live.massAt(1), 1e-9);
+    }
+
+    @Test
+    public void snapshotFrameDoesNotGrowWithTheHistory() throws Exception {
+        long small = snapshotFrameNanos(SMALL_USER, SMALL_HISTORY);
+        long large = snapshotFrameNanos(LARGE_USER, LARGE_HISTORY);
+        // Generous, since the two runs share the machine with the background queries
+        assertTrue("The snapshot took " + large + " ns to show with " + LARGE_HISTORY + " logs and " + small +
+                        " ns with " + SMALL_HISTORY,
+                large <= small * 3 + TimeUnit.MILLISECONDS.toNanos(2));
+    }
+
+    /**
+     * Gives a user a history of the given size and a snapshot of its first
+     * page, then opens the dashboard from the snapshot several times with
+     * main thread checks enabled.
+     *
+     * @return The fastest time to show the snapshot, as recorded in "dashboard.snapshot".
+     */
+    private long snapshotFrameNanos(int user, int logs) throws Exception {
+        DatabaseHelper helper = DatabaseManager.acquire(application);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            db.beginTransaction();
+            try (SQLiteStatement insert = db.compileStatement(MassImporter.INSERT_SQL)) {
+                for (int day = 0; day < logs; day++) {
+                    insert.bindLong(1, user);
+                    insert.bindLong(2, day);
+                    insert.bindLong(3, MassGrams.of(70 + day % 50 * 0.1));
+                    insert.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            DatabaseManager.release(helper);
+        }
+        MassPage first = repository.getFirstPage(user, SortOrder.DATE_ASCENDING, PAGE_SIZE);
+        DashboardSnapshot.save(application, user, new DashboardSnapshot(first, GoalTracker.NO_GOAL));
+
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < REPEATS; i++) {
+            QueryMetrics.getInstance().reset();
+            DatabaseHelper.setMainThreadChecksEnabled(true);
+            DashboardViewModel shown = new DashboardViewModel(application);
+            try {
+                shown.setUserId(user);
+                shown.loadInitialPage(PAGE_SIZE);
+                fastest = Math.min(fastest, QueryMetrics.getInstance().getStats("dashboard.snapshot").getTotalNanos());
+                awaitRecorded("dashboard.live"); // So the next run does not overlap this one's query
+            } finally {
+                DatabaseHelper.setMainThreadChecksEnabled(false);
+                GoalTracker.awaitIdle();
+                shown.onCleared();
+            }
+        }
+        return fastest;
+    }
+
+    private static void awaitRecorded(String name) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            if (QueryMetrics.getInstance().getStats(name) != null) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError(name + " was never recorded");
+    }
+
+    private static String describe(MassPage page) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < page.size(); i++) {
+            text.append(EpochDays.format(page.dayAt(i))).append('=').append(page.massAt(i)).append(' ');
+        }
+        return text.toString();
+    }
+
+    private MassPage awaitPageOtherThan(MassPage shown) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            MassPage current = viewModel.getPage().getValue();
+            if (current != shown) {
+                return current;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("The snapshot was never replaced");
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.masstracker;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs many repositories against the shared DatabaseHelper at once, mixing
+ * writes, paged and full reads, and repositories being opened and closed,
+ * and checks that none of it fails with SQLITE_BUSY or a closed database.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DatabaseManagerStressTest {
+
+    private static final int WORKERS = 8;
+    private static final int CHURNERS = 4;
+    private static final int ROUNDS = 150;
+    private static final int FIRST_DAY = EpochDays.parse("2024-01-01");
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        DatabaseManager.reset();
+        context = RuntimeEnvironment.getApplication();
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.reset();
+    }
+
+    @Test
+    public void concurrentReadsAndWritesNeverFail() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(WORKERS + CHURNERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int w = 0; w < WORKERS; w++) {
+            int userId = w + 1;
+            tasks.add(pool.submit(() -> runWorker(userId, start, failures)));
+        }
+        for (int c = 0; c < CHURNERS; c++) {
+            tasks.add(pool.submit(() -> runChurner(start, failures)));
+        }
+        start.countDown();
+        for (Future<?> task : tasks) {
+            task.get(2, TimeUnit.MINUTES);
+        }
+        pool.shutdown();
+
+        assertTrue("Failures: " + failures, failures.isEmpty());
+        assertEquals(0, DatabaseManager.getReferenceCount());
+
+        // Every repository was closed, so this reopens the connections
+        MassRepository repository = new MassRepository(context);
+        try {
+            for (int w = 0; w < WORKERS; w++) {
+                MassSeries series = repository.getAllMassLogs(w + 1);
+                assertEquals(expectedSize(), series.size());
+            }
+        } finally {
+            repository.close();
+        }
+        assertEquals(0, DatabaseManager.getReferenceCount());
+    }
+
+    /**
+     * Writes a user's logs, deleting every third one again, and reads them
+     * back between writes.
+     */
+    private void runWorker(int userId, CountDownLatch start, List<Throwable> failures) {
+        MassRepository repository = new MassRepository(context);
+        try {
+            start.await();
+            for (int i = 0; i < ROUNDS; i++) {
+                String date = EpochDays.format(FIRST_DAY + i);
+                assertTrue(repository.addMassLog(userId, date, 60 + i * 0.1));
+                if (i % 3 == 2) {
+                    assertTrue(repository.deleteMassLog(userId, date));
+                }
+                SortOrder order = SortOrder.values()[i % SortOrder.values().length];
+                MassPage page = repository.getFirstPage(userId, order, 20);
+                if (page.hasNext()) {
+                    repository.getNextPage(userId, page, 20);
+                }
+                if (i % 10 == 0) {
+                    repository.getAllMassLogs(userId);
+                    repository.getRollups(userId, FIRST_DAY, FIRST_DAY + ROUNDS, 30);
+                }
+            }
+        } catch (Throwable t) {
+            failures.add(t);
+        } finally {
+            repository.close();
+        }
+    }
+
+    /**
+     * Opens short-lived repositories, as activities coming and going do, so
+     * the reference count keeps rising and falling under the workers.
+     */
+    private void runChurner(CountDownLatch start, List<Throwable> failures) {
+        try {
+            start.await();
+            for (int i = 0; i < ROUNDS; i++) {
+                MassRepository repository = new MassRepository(context);
+                try {
+                    repository.getFirstPage(1, SortOrder.DATE_DESCENDING, 10);
+                } finally {
+                    repository.close();
+                }
+            }
+        } catch (Throwable t) {
+            failures.add(t);
+        }
+    }
+
+    private static int expectedSize() {
+        return ROUNDS - ROUNDS / 3;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.masstracker;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the tracker starts from the newest log in the database, so a
+ * backdated reading cannot pass for the latest one, and that it follows the
+ * newest log when logs are deleted.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class GoalTrackerTest {
+
+    private static final int USER = 1;
+
+    private Context context;
+    private final List<Double> notified = new ArrayList<>();
+    private MassPage newest;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        notified.clear();
+    }
+
+    @Test
+    public void backdatedFirstReadingDoesNotNotify() throws Exception {
+        newest = page("2024-03-10", 80.0);
+        GoalTracker tracker = tracker();
+        tracker.setGoal(75.0);
+        tracker.onReading(EpochDays.parse("2024-03-01"), 70.0);
+        GoalTracker.awaitIdle();
+        assertEquals(0, notified.size());
+
+        tracker.onReading(EpochDays.parse("2024-03-11"), 74.0);
+        GoalTracker.awaitIdle();
+        assertEquals(1, notified.size());
+        assertEquals(74.0, notified.get(0), 1e-9);
+    }
+
+    @Test
+    public void deletingTheLatestReadingRearmsTheGoal() throws Exception {
+        newest = page("2024-03-10", 80.0);
+        GoalTracker tracker = tracker();
+        tracker.setGoal(75.0);
+        tracker.onReading(EpochDays.parse("2024-03-11"), 74.0);
+        GoalTracker.awaitIdle();
+        assertEquals(1, notified.size());
+
+        newest = page("2024-03-10", 80.0); // The reading of the 11th was deleted
+        tracker.onLogsChanged();
+        tracker.onReading(EpochDays.parse("2024-03-12"), 73.0);
+        GoalTracker.awaitIdle();
+        assertEquals(2, notified.size());
+        assertEquals(73.0, notified.get(1), 1e-9);
+
+        newest = new MassPage(SortOrder.DATE_DESCENDING, new int[0], new double[0], 0, false, false);
+        tracker.onLogsChanged();
+        GoalTracker.awaitIdle();
+        assertEquals(2, notified.size());
+    }
+
+    @Test
+    public void readingAlreadyBelowTheGoalIsAStartingPoint() throws Exception {
+        newest = new MassPage(SortOrder.DATE_DESCENDING, new int[0], new double[0], 0, false, false);
+        tracker().setGoal(75.0);
+        GoalTracker.awaitIdle();
+
+        // Logs already below the goal, as after a first install with restored data
+        newest = page("2024-03-10", 70.0);
+        tracker();
+        GoalTracker.awaitIdle();
+        assertEquals(0, notified.size());
+    }
+
+    private GoalTracker tracker() {
+        return new GoalTracker(context, USER, (userId, goal, mass) -> notified.add(mass), () -> newest);
+    }
+
+    private static MassPage page(String date, double mass) {
+        return new MassPage(SortOrder.DATE_DESCENDING, new int[]{EpochDays.parse(date)}, new double[]{mass},
+                1, false, false);
+    }
+}
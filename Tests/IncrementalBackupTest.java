@@ -0,0 +1,168 @@
+package com.example.masstracker;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the backup chain only grows while it still describes the
+ * live database, and that anything which replaces or rewinds the database
+ * starts a new chain instead of adding a delta that cannot be replayed.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class IncrementalBackupTest {
+
+    private static final int USER = 1;
+
+    private Context context;
+    private MassRepository repository;
+    private DatabaseHelper helper;
+    private File directory;
+    private IncrementalBackup backup;
+
+    @Before
+    public void setUp() {
+        DatabaseManager.reset();
+        context = RuntimeEnvironment.getApplication();
+        repository = new MassRepository(context);
+        helper = DatabaseManager.acquire(context);
+        directory = new File(context.getFilesDir(), "backups");
+        backup = new IncrementalBackup(helper, context.getDatabasePath(DatabaseHelper.DATABASE_NAME), directory,
+                IncrementalBackup.DEFAULT_ROWS_PER_CHUNK);
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.release(helper);
+        repository.close();
+        DatabaseManager.reset();
+    }
+
+    @Test
+    public void deltasFollowTheBaseAndRestoreTheLatestState() throws Exception {
+        add("2024-03-01", 70.0);
+        assertBackedUp();
+        assertEquals(list("base"), chain());
+
+        add("2024-03-02", 71.0);
+        assertBackedUp();
+        assertBackedUp(); // Nothing changed, so no file is added
+        add("2024-03-03", 72.0);
+        assertTrue(repository.deleteMassLog(USER, "2024-03-01"));
+        assertBackedUp();
+        assertEquals(list("base", "delta", "delta"), chain());
+
+        assertEquals(list("2024-03-02", "2024-03-03"), restoredDays());
+    }
+
+    @Test
+    public void resetDatabaseStartsANewChain() throws Exception {
+        add("2024-03-01", 70.0);
+        add("2024-03-02", 71.0);
+        assertBackedUp();
+        add("2024-03-03", 72.0);
+        assertBackedUp();
+
+        helper.resetDatabase();
+        // Enough writes that the new change log passes the chain's last sequence number
+        for (int i = 10; i < 20; i++) {
+            add("2024-04-" + i, 60.0);
+        }
+        assertBackedUp();
+        assertEquals(list("base"), chain());
+        assertEquals(10, restoredDays().size());
+    }
+
+    @Test
+    public void restoreStartsANewChain() throws Exception {
+        add("2024-03-01", 70.0);
+        assertBackedUp();
+        add("2024-03-02", 71.0);
+        assertBackedUp();
+
+        assertTrue(helper.restoreIncremental(directory.getPath(), context));
+        add("2024-03-03", 72.0);
+        assertBackedUp();
+        assertEquals(list("base"), chain());
+        assertEquals(list("2024-03-01", "2024-03-02", "2024-03-03"), restoredDays());
+    }
+
+    @Test
+    public void databaseBehindTheChainStartsANewChain() throws Exception {
+        add("2024-03-01", 70.0);
+        assertBackedUp();
+        add("2024-03-02", 71.0);
+        assertBackedUp();
+
+        // Rewind the change log sequence, as a database copied back from elsewhere would be
+        helper.getWritableDatabase().execSQL("DELETE FROM sqlite_sequence WHERE name = ?",
+                new Object[]{DatabaseHelper.TABLE_CHANGE_LOG});
+        assertBackedUp();
+        assertEquals(list("base"), chain());
+        assertEquals(list("2024-03-01", "2024-03-02"), restoredDays());
+    }
+
+    private void add(String date, double mass) {
+        assertTrue(repository.addMassLog(USER, date, mass));
+    }
+
+    private void assertBackedUp() {
+        DatabaseBackup.Result result = backup.backup(false, null);
+        assertTrue(result.getMessage(), result.isSuccessful());
+    }
+
+    /**
+     * @return The kinds of file in the backup directory, sorted.
+     */
+    private List<String> chain() {
+        List<String> kinds = new ArrayList<>();
+        for (String name : directory.list()) {
+            if (name.startsWith("base-")) {
+                kinds.add("base");
+            } else if (name.startsWith("delta-")) {
+                kinds.add("delta");
+            }
+        }
+        Collections.sort(kinds);
+        return kinds;
+    }
+
+    private List<String> restoredDays() throws Exception {
+        File restored = new File(context.getCacheDir(), "restored.db");
+        backup.restore(restored);
+        List<String> days = new ArrayList<>();
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(restored.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            try (Cursor cursor = db.rawQuery("SELECT " + DatabaseHelper.COLUMN_DAY + " FROM " +
+                    DatabaseHelper.TABLE_MASS + " ORDER BY " + DatabaseHelper.COLUMN_DAY, null)) {
+                while (cursor.moveToNext()) {
+                    days.add(EpochDays.format(cursor.getInt(0)));
+                }
+            }
+        } finally {
+            db.close();
+        }
+        return days;
+    }
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, values);
+        return list;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.masstracker;
+
+import android.app.Application;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs the dashboard with main thread checks enabled, so any query or write
+ * the ViewModel makes on the main thread fails the test, and checks that the
+ * check itself catches such an access.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MainThreadChecksTest {
+
+    private static final int USER = 1;
+    private static final int PAGE_SIZE = 10;
+
+    private Application application;
+    private MassRepository repository;
+    private DashboardViewModel viewModel;
+
+    @Before
+    public void setUp() {
+        DatabaseManager.reset();
+        application = RuntimeEnvironment.getApplication();
+        repository = new MassRepository(application);
+        DatabaseHelper.setMainThreadChecksEnabled(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DatabaseHelper.setMainThreadChecksEnabled(false);
+        if (viewModel != null) {
+            GoalTracker.awaitIdle();
+            viewModel.onCleared();
+        }
+        repository.close();
+        // The ViewModel closes its repository in the background
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (DatabaseManager.getReferenceCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        DatabaseManager.reset();
+    }
+
+    @Test
+    public void repositoryOnTheMainThreadFails() {
+        try {
+            repository.getFirstPage(USER, SortOrder.DATE_ASCENDING, PAGE_SIZE);
+            fail("The main thread read the database");
+        } catch (IllegalStateException expected) {
+            // The check fired before any connection was used
+        }
+    }
+
+    @Test
+    public void dashboardKeepsTheDatabaseOffTheMainThread() throws Exception {
+        viewModel = new DashboardViewModel(application);
+        viewModel.setUserId(USER);
+        viewModel.setGoal(65.0);
+        viewModel.loadFirstPage(PAGE_SIZE);
+        viewModel.addMassLog("2024-03-01", 70.0, PAGE_SIZE);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((!"Mass log added".equals(viewModel.getMessage().getValue()) || viewModel.getPage().getValue() == null)
+                && System.nanoTime() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertEquals("Mass log added", viewModel.getMessage().getValue());
+        assertTrue(viewModel.getPage().getValue() != null);
+    }
+}
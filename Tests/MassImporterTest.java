@@ -0,0 +1,58 @@
+package com.example.masstracker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the importer skips rows whose mass is not a positive number,
+ * such as "NaN" and "Infinity", which Double.parseDouble accepts.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MassImporterTest {
+
+    private static final int USER = 1;
+
+    private MassRepository repository;
+
+    @Before
+    public void setUp() {
+        DatabaseManager.reset();
+        repository = new MassRepository(RuntimeEnvironment.getApplication());
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+        DatabaseManager.reset();
+    }
+
+    @Test
+    public void nonFiniteAndNonPositiveMassesAreSkipped() throws Exception {
+        String csv = "date,mass\n" +
+                "2024-03-01,70.5\n" +
+                "2024-03-02,NaN\n" +
+                "2024-03-03,Infinity\n" +
+                "2024-03-04,-Infinity\n" +
+                "2024-03-05,0\n" +
+                "2024-03-06,-71\n" +
+                "\n" +
+                "2024-03-07,\"71.0\"\n";
+        MassImporter.Result result = repository.importMassLogs(USER, new StringReader(csv), ',', 2, null);
+        assertEquals(2, result.getRowsImported());
+        assertEquals(6, result.getRowsSkipped()); // The header and five bad masses; the blank line is not counted
+
+        MassSeries logs = repository.getAllMassLogs(USER);
+        assertEquals(2, logs.size());
+        assertEquals("2024-03-01", EpochDays.format(logs.dayAt(0)));
+        assertEquals(70.5, logs.massAt(0), 1e-9);
+        assertEquals("2024-03-07", EpochDays.format(logs.dayAt(1)));
+    }
+}
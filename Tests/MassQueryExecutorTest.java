@@ -0,0 +1,97 @@
+package com.example.masstracker;
+
+import android.os.Looper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Checks that in-memory work sent through computeLatest is delivered while
+ * database work is held back, that only the latest request of a slot
+ * reaches its callback, and that a latest request the full queue rejects
+ * still runs once there is room.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MassQueryExecutorTest {
+
+    private final MassQueryExecutor executor = MassQueryExecutor.getInstance();
+
+    @Test
+    public void computeLatestRunsWhileTheSwapGateIsHeld() throws Exception {
+        List<String> delivered = new ArrayList<>();
+        Lock exclusive = DatabaseHelper.exclusiveGate();
+        exclusive.lock(); // As a restore does while it swaps the file
+        try {
+            Future<String> query = executor.submitLatest(new MassQueryExecutor.Slot(), () -> "query", delivered::add);
+            Future<String> diff = executor.computeLatest(new MassQueryExecutor.Slot(), () -> "diff", delivered::add);
+            assertEquals("diff", diff.get(5, TimeUnit.SECONDS));
+            shadowOf(Looper.getMainLooper()).idle();
+            assertEquals(1, delivered.size());
+            assertEquals("diff", delivered.get(0));
+            assertFalse(query.isDone());
+        } finally {
+            exclusive.unlock();
+        }
+    }
+
+    @Test
+    public void computeLatestDeliversOnlyTheLatestRequest() throws Exception {
+        MassQueryExecutor.Slot slot = new MassQueryExecutor.Slot();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> delivered = new ArrayList<>();
+        Future<Integer> first = executor.computeLatest(slot, () -> {
+            release.await();
+            return 1;
+        }, delivered::add);
+        Future<Integer> second = executor.computeLatest(slot, () -> 2, delivered::add);
+        release.countDown();
+        assertEquals(Integer.valueOf(2), second.get(5, TimeUnit.SECONDS));
+        shadowOf(Looper.getMainLooper()).idle();
+        assertTrue(first.isCancelled());
+        assertEquals(1, delivered.size());
+        assertEquals(Integer.valueOf(2), delivered.get(0));
+    }
+
+    @Test
+    public void latestRequestRejectedByAFullQueueStillRuns() throws Exception {
+        List<String> delivered = new ArrayList<>();
+        Lock exclusive = DatabaseHelper.exclusiveGate();
+        exclusive.lock(); // Every gated task waits, so the threads and then the queue fill up
+        try {
+            boolean full = false;
+            for (int i = 0; i < 1000 && !full; i++) {
+                try {
+                    executor.submit(() -> null);
+                } catch (RejectedExecutionException e) {
+                    full = true;
+                }
+            }
+            assertTrue(full);
+            executor.submitLatest(new MassQueryExecutor.Slot(), () -> "latest", delivered::add);
+        } finally {
+            exclusive.unlock();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (delivered.isEmpty() && System.nanoTime() < deadline) {
+            shadowOf(Looper.getMainLooper()).idleFor(MassQueryExecutor.RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            Thread.sleep(10);
+        }
+        assertEquals(1, delivered.size());
+        assertEquals("latest", delivered.get(0));
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.masstracker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the rollup triggers keep the buckets in step with the logs.
+ * Robolectric's SQLite is older than 3.39, like most devices', so this also
+ * checks the triggers compile there.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MassRollupTriggerTest {
+
+    private static final int USER = 1;
+    private static final int FIRST_DAY = EpochDays.parse("2024-03-01");
+
+    private MassRepository repository;
+
+    @Before
+    public void setUp() {
+        DatabaseManager.reset();
+        repository = new MassRepository(RuntimeEnvironment.getApplication());
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+        DatabaseManager.reset();
+    }
+
+    @Test
+    public void bucketsFollowInsertsReplacesAndDeletes() {
+        assertTrue(repository.addMassLog(USER, "2024-03-01", 70.0));
+        assertTrue(repository.addMassLog(USER, "2024-03-02", 71.0));
+        assertTrue(repository.addMassLog(USER, "2024-03-02", 72.5)); // Replaces the day's log
+        assertTrue(repository.addMassLog(USER, "2024-03-03", 69.0));
+
+        List<MassRollup> days = repository.getRollups(USER, FIRST_DAY, FIRST_DAY + 2, 4);
+        assertEquals(3, days.size());
+        assertEquals(72.5, days.get(1).getLastMass(), 1e-9);
+
+        List<MassRollup> month = repository.getRollups(USER, FIRST_DAY, FIRST_DAY + 30, 1);
+        assertEquals(1, month.size());
+        assertEquals(3, month.get(0).getCount());
+        assertEquals(69.0, month.get(0).getMinMass(), 1e-9);
+        assertEquals(72.5, month.get(0).getMaxMass(), 1e-9);
+        assertEquals(FIRST_DAY + 2, month.get(0).getLastDay());
+
+        // Deleting the latest log moves the bucket's latest back a day
+        assertTrue(repository.deleteMassLog(USER, "2024-03-03"));
+        month = repository.getRollups(USER, FIRST_DAY, FIRST_DAY + 30, 1);
+        assertEquals(2, month.get(0).getCount());
+        assertEquals(FIRST_DAY + 1, month.get(0).getLastDay());
+        assertEquals(72.5, month.get(0).getLastMass(), 1e-9);
+
+        // An emptied bucket is removed rather than left with a zero count
+        assertTrue(repository.deleteMassLog(USER, "2024-03-01"));
+        assertTrue(repository.deleteMassLog(USER, "2024-03-02"));
+        assertTrue(repository.getRollups(USER, FIRST_DAY, FIRST_DAY + 30, 1).isEmpty());
+    }
+
+    @Test
+    public void rangesNeverReturnMoreBucketsThanAsked() {
+        int first = EpochDays.parse("2024-01-20");
+        int last = EpochDays.parse("2024-04-10");
+        for (int day = first; day <= last; day++) {
+            assertTrue(repository.addMassLog(USER, EpochDays.format(day), 70.0));
+        }
+        // Nine days can touch three weeks, whichever day they start on
+        for (int start = first; start < first + 7; start++) {
+            assertTrue(repository.getRollups(USER, start, start + 8, 2).size() <= 2);
+        }
+        // January 31 to April 1 touches four months, though it is only 62 days
+        List<MassRollup> months = repository.getRollups(USER, EpochDays.parse("2024-01-31"),
+                EpochDays.parse("2024-04-01"), 4);
+        assertEquals(4, months.size());
+        assertEquals(MassRollup.Bucket.MONTH, months.get(0).getBucket());
+    }
+}
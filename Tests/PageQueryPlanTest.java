@@ -0,0 +1,89 @@
+package com.example.masstracker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the query plan of every page query. Mass orders must seek the
+ * covering index idx_user_mass_g and date orders the mass table's primary
+ * key, which for a WITHOUT ROWID table is the table itself. Neither may sort
+ * in a temporary B-tree, or a page would cost a scan of the user's history.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PageQueryPlanTest {
+
+    private static final int USER = 1;
+    private static final int LOGS = 60;
+    private static final int PAGE_SIZE = 10;
+
+    private MassRepository repository;
+
+    @Before
+    public void setUp() {
+        DatabaseManager.reset();
+        repository = new MassRepository(RuntimeEnvironment.getApplication());
+        int firstDay = EpochDays.parse("2024-01-01");
+        for (int i = 0; i < LOGS; i++) {
+            // Repeats each mass a few times, so mass seeks also compare days
+            assertTrue(repository.addMassLog(USER, EpochDays.format(firstDay + i), 70 + (i * 7 % 20) * 0.5));
+        }
+        QueryMetrics.getInstance().setSlowThresholdMillis(0); // Capture the plan of every query
+        QueryMetrics.getInstance().reset();
+    }
+
+    @After
+    public void tearDown() {
+        QueryMetrics.getInstance().setSlowThresholdMillis(QueryMetrics.DEFAULT_SLOW_MILLIS);
+        QueryMetrics.getInstance().reset();
+        repository.close();
+        DatabaseManager.reset();
+    }
+
+    @Test
+    public void everyPageQuerySeeksAnIndexWithoutSorting() {
+        Map<String, String> plans = new HashMap<>();
+        for (SortOrder order : SortOrder.values()) {
+            MassPage first = repository.getFirstPage(USER, order, PAGE_SIZE);
+            MassPage second = repository.getNextPage(USER, first, PAGE_SIZE);
+            MassPage third = repository.getNextPage(USER, second, PAGE_SIZE);
+            repository.getPreviousPage(USER, third, PAGE_SIZE);
+            // Collected per order, so the bounded slow log never drops one
+            for (QueryMetrics.SlowQuery query : QueryMetrics.getInstance().getSlowQueries()) {
+                if (query.getSql() != null) {
+                    plans.put(query.getSql(), query.getPlan());
+                }
+            }
+            QueryMetrics.getInstance().reset();
+        }
+
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < MassRepository.PAGE_SQL.length; i++) {
+            String sql = MassRepository.PAGE_SQL[i];
+            String plan = plans.get(sql);
+            if (plan == null) {
+                continue;
+            }
+            seen.add(sql);
+            boolean byMass = (i & 4) != 0;
+            String expected = byMass ? "USING COVERING INDEX idx_user_mass_g" : "USING PRIMARY KEY";
+            assertTrue("Expected " + expected + " for " + sql + ", got:\n" + plan, plan.contains(expected));
+            assertFalse("Sorts in a temporary B-tree: " + sql + "\n" + plan, plan.contains("TEMP B-TREE"));
+            assertFalse("Scans the table: " + sql + "\n" + plan, plan.startsWith("SCAN"));
+        }
+        assertEquals("Page queries not exercised", new HashSet<>(Arrays.asList(MassRepository.PAGE_SQL)), seen);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.masstracker;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a version 1 database, in the layout the first release created,
+ * and checks that rows breaking the version 2 constraints are kept aside
+ * rather than dropped.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RebuildTablesMigrationTest {
+
+    private Context context;
+    private File databaseFile;
+
+    @Before
+    public void setUp() {
+        DatabaseManager.reset();
+        context = RuntimeEnvironment.getApplication();
+        databaseFile = context.getDatabasePath(DatabaseHelper.DATABASE_NAME);
+        assertTrue(databaseFile.getParentFile().isDirectory() || databaseFile.getParentFile().mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseManager.reset();
+    }
+
+    @Test
+    public void keepsRejectedUsersAndLogsInQuarantine() {
+        SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
+        try {
+            // Version 1 declared goal last and left every column nullable
+            old.execSQL("CREATE TABLE users (_id INTEGER PRIMARY KEY AUTOINCREMENT, username TEXT, password TEXT, goal REAL)");
+            old.execSQL("CREATE TABLE mass (date TEXT, mass REAL, user_id_fk INTEGER, " +
+                    "FOREIGN KEY(user_id_fk) REFERENCES users(_id))");
+            old.execSQL("INSERT INTO users VALUES (1, 'ada', 'secret', 65.0)");
+            old.execSQL("INSERT INTO users VALUES (2, NULL, 'secret', NULL)");
+            old.execSQL("INSERT INTO users VALUES (3, 'ada', 'other', 60.0)");
+            Object[][] rows = {
+                    {"2024-03-01", 70.0, 1},
+                    {"2024-03-02", null, 1},
+                    {null, 71.0, 1},
+                    {"2024-03-03", 72.0, 2},
+                    {"2024-03-04", 73.0, 3},
+                    {"2024-03-05", 74.0, 9},
+                    {"2024-03-06", 75.0, 1},
+            };
+            for (Object[] row : rows) {
+                old.execSQL("INSERT INTO mass (date, mass, user_id_fk) VALUES (?, ?, ?)", row);
+            }
+            old.setVersion(1);
+        } finally {
+            old.close();
+        }
+
+        MassRepository repository = new MassRepository(context);
+        MassSeries series;
+        try {
+            series = repository.getAllMassLogs(1);
+        } finally {
+            repository.close();
+        }
+        assertEquals(2, series.size());
+        assertEquals("2024-03-01", EpochDays.format(series.dayAt(0)));
+        assertEquals("2024-03-06", EpochDays.format(series.dayAt(1)));
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(databaseFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(Arrays.asList("1|ada|secret|65.0"), rows(db, "SELECT _id, username, password, goal FROM users"));
+            assertEquals(Arrays.asList("2|null|secret|null", "3|ada|other|60.0"),
+                    rows(db, "SELECT _id, username, password, goal FROM users_quarantine ORDER BY rowid"));
+            assertEquals(Arrays.asList("1|2024-03-02|null", "1|null|71.0", "2|2024-03-03|72.0",
+                            "3|2024-03-04|73.0", "9|2024-03-05|74.0"),
+                    rows(db, "SELECT user_id_fk, date, mass FROM mass_quarantine ORDER BY rowid"));
+            assertEquals(0, rows(db, "SELECT name FROM sqlite_master WHERE name LIKE '%_v1'").size());
+        } finally {
+            db.close();
+        }
+    }
+
+    private static List<String> rows(SQLiteDatabase db, String sql) {
+        List<String> rows = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    row.append(i == 0 ? "" : "|");
+                    if (cursor.getType(i) == Cursor.FIELD_TYPE_FLOAT) {
+                        row.append(cursor.getDouble(i)); // SQLite versions print reals differently
+                    } else {
+                        row.append(cursor.isNull(i) ? "null" : cursor.getString(i));
+                    }
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+}